@@ -0,0 +1,70 @@
+package com.tzj.rdlisp;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// creating closures and calling them through captured environments
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class ClosureBenchmark {
+  private static final String DEFINITIONS =
+      """
+      (defun make-adder (n)
+        (lambda (m) (+ n m)))
+
+      (defun make-counter (n)
+        (lambda () (lambda () n)))
+
+      (defun add-all (n acc)
+        (if (eq? n 0)
+          acc
+          (add-all (- n 1) ((make-adder n) acc))))
+
+      (defun nest-all (n acc)
+        (if (eq? n 0)
+          acc
+          (nest-all (- n 1) (((make-counter n))))))
+      """;
+
+  @Param({"tree", "analyzer", "vm"})
+  public String engine;
+
+  private Engine eng;
+  private LispObject create;
+  private LispObject nested;
+
+  @Setup
+  public void setup() {
+    eng = Engine.named(engine);
+    Lisp.loadStdLib(eng);
+    Lisp.eval(eng, DEFINITIONS);
+
+    create = Lisp.read("(add-all 1000 0)");
+    nested = Lisp.read("(nest-all 1000 0)");
+  }
+
+  @Benchmark
+  public void createAndCall(Blackhole bh) {
+    bh.consume(eng.eval(Environment.getInitEnv(), create));
+  }
+
+  @Benchmark
+  public void createNested(Blackhole bh) {
+    bh.consume(eng.eval(Environment.getInitEnv(), nested));
+  }
+}
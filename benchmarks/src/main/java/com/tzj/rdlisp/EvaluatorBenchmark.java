@@ -0,0 +1,79 @@
+package com.tzj.rdlisp;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// call-heavy recursive functions - the interpreter's core dispatch, calls and arithmetic
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--enable-preview", "-Xss16m"})
+public class EvaluatorBenchmark {
+  private static final String DEFINITIONS =
+      """
+      (defun fib (n)
+        (if (< n 2)
+          n
+          (+ (fib (- n 1)) (fib (- n 2)))))
+
+      (defun factorial (n)
+        (if (< n 2)
+          1
+          (* n (factorial (- n 1)))))
+
+      (defun ackermann (m n)
+        (if (eq? m 0)
+          (+ n 1)
+          (if (eq? n 0)
+            (ackermann (- m 1) 1)
+            (ackermann (- m 1) (ackermann m (- n 1))))))
+      """;
+
+  @Param({"tree", "analyzer", "vm"})
+  public String engine;
+
+  private Engine eng;
+  private LispObject fib;
+  private LispObject factorial;
+  private LispObject ackermann;
+
+  @Setup
+  public void setup() {
+    eng = Engine.named(engine);
+    Lisp.loadStdLib(eng);
+    Lisp.eval(eng, DEFINITIONS);
+
+    fib = Lisp.read("(fib 20)");
+    factorial = Lisp.read("(factorial 30)");
+    ackermann = Lisp.read("(ackermann 2 9)");
+  }
+
+  @Benchmark
+  public void fib(Blackhole bh) {
+    bh.consume(eng.eval(Environment.getInitEnv(), fib));
+  }
+
+  // overflows into bignums past 20!
+  @Benchmark
+  public void factorial(Blackhole bh) {
+    bh.consume(eng.eval(Environment.getInitEnv(), factorial));
+  }
+
+  @Benchmark
+  public void ackermann(Blackhole bh) {
+    bh.consume(eng.eval(Environment.getInitEnv(), ackermann));
+  }
+}
@@ -0,0 +1,47 @@
+package com.tzj.rdlisp;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// creating isolated interpreters over the shared standard library, and a first evaluation in one
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class InterpreterBenchmark {
+  @Param({"tree", "analyzer", "vm"})
+  public String engine;
+
+  private Engine eng;
+  private LispObject form;
+
+  @Setup
+  public void setup() {
+    eng = Engine.named(engine);
+    Lisp.loadStdLib(eng);
+    form = Lisp.read("(foldl + 0 (map abs '(1 -2 3 -4)))");
+  }
+
+  @Benchmark
+  public Interpreter create() {
+    return new Interpreter(eng);
+  }
+
+  @Benchmark
+  public void createAndEval(Blackhole bh) {
+    bh.consume(new Interpreter(eng).eval(form));
+  }
+}
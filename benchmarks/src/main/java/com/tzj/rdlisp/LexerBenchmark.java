@@ -0,0 +1,44 @@
+package com.tzj.rdlisp;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// tokenizing source text, without building any forms
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class LexerBenchmark {
+  @Param({"100", "10000"})
+  public int forms;
+
+  private String src;
+
+  @Setup
+  public void setup() {
+    src = Lisp.program(forms);
+  }
+
+  @Benchmark
+  public void lex(Blackhole bh) {
+    var lexer = new Lexer(src);
+    Token token;
+    do {
+      token = lexer.nextToken();
+      bh.consume(token);
+    } while (token.kind() != TokenType.Eof);
+  }
+}
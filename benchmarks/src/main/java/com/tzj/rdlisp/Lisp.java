@@ -0,0 +1,64 @@
+package com.tzj.rdlisp;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+// shared setup for the benchmarks - loading the standard library and evaluating source text.
+// The global environment is process-wide, so each trial (re)loads the stdlib with its own engine.
+final class Lisp {
+  private static final String STDLIB_RESOURCE = "/stdlib.lisp";
+
+  private Lisp() {}
+
+  static void loadStdLib(Engine engine) {
+    var stdlib = Lisp.class.getResourceAsStream(STDLIB_RESOURCE);
+    if (stdlib == null) {
+      throw new IllegalStateException("stdlib.lisp is not on the classpath");
+    }
+
+    try {
+      Interpreter.loadShared(new InputStreamReader(stdlib, UTF_8), engine);
+    } catch (IOException err) {
+      throw new IllegalStateException(err);
+    }
+  }
+
+  static LispObject eval(Engine engine, String src) {
+    LispObject result = Util.nil;
+    var reader = new Reader(new Lexer(src));
+    while (reader.hasNext()) {
+      result = engine.eval(Environment.getInitEnv(), reader.next());
+    }
+    return result;
+  }
+
+  static LispObject read(String src) {
+    return new Reader(new Lexer(src)).next();
+  }
+
+  // a proper list of the integers 0 .. n-1
+  static LispObject range(int n) {
+    LispObject lst = Util.nil;
+    for (int i = n - 1; i >= 0; i--) {
+      lst = Util.makeCons(Integer.valueOf(i), lst);
+    }
+    return lst;
+  }
+
+  // `forms` top-level forms of typical source - definitions, nested lists, quotes and numbers
+  static String program(int forms) {
+    var src = new StringBuilder();
+    for (int i = 0; i < forms; i++) {
+      src.append(
+          switch (i % 4) {
+            case 0 -> String.format("(defun f%d (x y) (if (< x y) (+ x %d) (- y x)))\n", i, i);
+            case 1 -> String.format("(def v%d '(a b (c d) %d 2.5e3))\n", i, i);
+            case 2 -> String.format("`(g%d ,x ,@(list 1 2 3) (nested (deeper %d)))\n", i, i);
+            default -> String.format("(map (lambda (n) (* n %d)) (list 1 2 3 4 5)) ; call\n", i);
+          });
+    }
+    return src.toString();
+  }
+}
@@ -0,0 +1,104 @@
+package com.tzj.rdlisp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A load-test client for Server - opens `sessions` sessions, at most `concurrency` at a time,
+// each on a virtual thread that sends `requests` evaluations of `form` and then disconnects.
+// Reports the sessions completed per second and the latency of an evaluation's round trip.
+//
+//   $ java --enable-preview -cp benchmarks/target/benchmarks.jar com.tzj.rdlisp.LoadTest \
+//       --connect=5555 --sessions=10000 --concurrency=500 --requests=10
+public class LoadTest {
+  private static String connect = "5555";
+  private static Server.Framing framing = Server.Framing.LINE;
+  private static int sessions = 10_000;
+  private static int concurrency = 500;
+  private static int requests = 10;
+  private static String form = "(foldl + 0 (map abs '(1 -2 3 -4)))";
+
+  public static void main(String[] args) throws InterruptedException {
+    for (var arg : args) {
+      var eq = arg.indexOf('=');
+      var value = arg.substring(eq + 1);
+      switch (arg.substring(0, eq + 1)) {
+        case "--connect=" -> connect = value;
+        case "--framing=" -> framing = Server.Framing.named(value);
+        case "--sessions=" -> sessions = java.lang.Integer.parseInt(value);
+        case "--concurrency=" -> concurrency = java.lang.Integer.parseInt(value);
+        case "--requests=" -> requests = java.lang.Integer.parseInt(value);
+        case "--form=" -> form = value;
+        default -> throw new IllegalArgumentException("unknown option " + arg);
+      }
+    }
+
+    var address = Server.address(connect);
+    var latencies = new long[sessions * requests];
+    var recorded = new AtomicInteger();
+    var failed = new AtomicInteger();
+    var open = new Semaphore(concurrency);
+
+    var start = System.nanoTime();
+    try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (int i = 0; i < sessions; i++) {
+        open.acquire();
+        executor.execute(
+            () -> {
+              try {
+                session(address, latencies, recorded);
+              } catch (IOException | IllegalStateException err) {
+                failed.incrementAndGet();
+              } finally {
+                open.release();
+              }
+            });
+      }
+    }
+    var elapsed = System.nanoTime() - start;
+
+    var count = recorded.get();
+    Arrays.sort(latencies, 0, count);
+    System.out.printf(
+        "%d sessions (%d failed) in %.2fs - %.0f sessions/s%n",
+        sessions, failed.get(), elapsed / 1e9, sessions / (elapsed / 1e9));
+    if (count > 0) {
+      System.out.printf(
+          "%d evaluations - p50 %.1fus, p99 %.1fus, max %.1fus%n",
+          count,
+          percentile(latencies, count, 0.50) / 1e3,
+          percentile(latencies, count, 0.99) / 1e3,
+          latencies[count - 1] / 1e3);
+    }
+  }
+
+  private static void session(SocketAddress address, long[] latencies, AtomicInteger recorded)
+      throws IOException {
+    try (var channel = SocketChannel.open(address);
+        var in = new BufferedInputStream(Channels.newInputStream(channel));
+        var out = new BufferedOutputStream(Channels.newOutputStream(channel))) {
+      for (int i = 0; i < requests; i++) {
+        var sent = System.nanoTime();
+        framing.write(out, form);
+        var response = framing.read(in);
+        var took = System.nanoTime() - sent;
+
+        if (response == null || !response.startsWith("ok ")) {
+          throw new IllegalStateException(String.valueOf(response));
+        }
+        latencies[recorded.getAndIncrement()] = took;
+      }
+    }
+  }
+
+  private static long percentile(long[] sorted, int count, double p) {
+    return sorted[Math.min(count - 1, (int) Math.ceil(p * count) - 1)];
+  }
+}
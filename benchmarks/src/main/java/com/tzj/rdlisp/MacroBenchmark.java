@@ -0,0 +1,69 @@
+package com.tzj.rdlisp;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// code that goes through macros - a loop whose body expands `when` and `unless` on every
+// iteration, and a top-level form that is expanded afresh every time it is evaluated
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class MacroBenchmark {
+  private static final String DEFINITIONS =
+      """
+      (defmacro when (cond body)
+        `(if ,cond ,body nil))
+
+      (defmacro unless (cond body)
+        `(if ,cond nil ,body))
+
+      (defun count-down (n acc)
+        (if (eq? n 0)
+          acc
+          (count-down (- n 1)
+                      (when (< 0 n)
+                        (unless (< n 0)
+                          (+ acc 1))))))
+      """;
+
+  @Param({"tree", "analyzer", "vm"})
+  public String engine;
+
+  private Engine eng;
+  private LispObject loop;
+  private LispObject expand;
+
+  @Setup
+  public void setup() {
+    eng = Engine.named(engine);
+    Lisp.loadStdLib(eng);
+    Lisp.eval(eng, DEFINITIONS);
+
+    loop = Lisp.read("(count-down 1000 0)");
+    expand = Lisp.read("(when t (unless nil 42))");
+  }
+
+  @Benchmark
+  public void expandInLoop(Blackhole bh) {
+    bh.consume(eng.eval(Environment.getInitEnv(), loop));
+  }
+
+  @Benchmark
+  public void expandTopLevel(Blackhole bh) {
+    bh.consume(eng.eval(Environment.getInitEnv(), expand));
+  }
+}
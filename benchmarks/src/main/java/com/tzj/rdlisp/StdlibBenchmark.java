@@ -0,0 +1,69 @@
+package com.tzj.rdlisp;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// the list functions of the standard library over lists of `size` elements
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class StdlibBenchmark {
+  @Param({"1000", "10000", "100000", "1000000"})
+  public int size;
+
+  @Param({"tree", "analyzer", "vm"})
+  public String engine;
+
+  private Engine eng;
+  private LispObject map;
+  private LispObject filter;
+  private LispObject foldl;
+  private LispObject append;
+
+  @Setup
+  public void setup() {
+    eng = Engine.named(engine);
+    Lisp.loadStdLib(eng);
+    Lisp.eval(eng, "(defun inc (n) (+ n 1))");
+    Environment.getInitEnv().bindGlobal(Util.makeSymbol("xs"), Lisp.range(size));
+
+    map = Lisp.read("(map inc xs)");
+    filter = Lisp.read(String.format("(filter (lambda (n) (< n %d)) xs)", size / 2));
+    foldl = Lisp.read("(foldl + 0 xs)");
+    append = Lisp.read("(append xs xs)");
+  }
+
+  @Benchmark
+  public void map(Blackhole bh) {
+    bh.consume(eng.eval(Environment.getInitEnv(), map));
+  }
+
+  @Benchmark
+  public void filter(Blackhole bh) {
+    bh.consume(eng.eval(Environment.getInitEnv(), filter));
+  }
+
+  @Benchmark
+  public void foldl(Blackhole bh) {
+    bh.consume(eng.eval(Environment.getInitEnv(), foldl));
+  }
+
+  @Benchmark
+  public void append(Blackhole bh) {
+    bh.consume(eng.eval(Environment.getInitEnv(), append));
+  }
+}
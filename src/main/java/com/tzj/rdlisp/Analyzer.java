@@ -0,0 +1,212 @@
+package com.tzj.rdlisp;
+
+// An analyzing evaluator (cf. SICP 4.1.7) - each form is compiled once into a tree of Nodes
+// that is then executed, instead of being re-dispatched on every evaluation as in Evaluator.
+// Lambda bodies are analyzed when the lambda form itself is analyzed, so a function's body is
+// compiled exactly once however often it is called.
+public class Analyzer {
+  public static LispObject eval(final Environment env, LispObject obj) {
+    return analyze(obj, env.scope(), env.global()).execute(env);
+  }
+
+  public static Node analyze(LispObject obj, Scope scope, Environment global) {
+    return analyze(obj, scope, global, false);
+  }
+
+  // `tail` is set for forms in tail position of a lambda body, whose calls become TailCalls
+  public static Node analyze(LispObject obj, Scope scope, Environment global, boolean tail) {
+    return switch (obj) {
+      case Nil nil -> new ConstantNode(nil);
+
+      case LispNumber num -> new ConstantNode(num);
+
+      case SelfEvaluating value -> new ConstantNode(obj);
+
+      case Symbol sym -> {
+        var address = Resolver.address(sym, scope);
+        if (address instanceof LocalRef ref) {
+          yield new LocalNode(ref.depth, ref.slot);
+        }
+        yield new GlobalNode((GlobalRef) address);
+      }
+
+      case Cons cons -> {
+        if (cons.car instanceof Symbol op && Resolver.address(op, scope) instanceof GlobalRef ref) {
+          if (op.special == null) {
+            var fn = new GlobalNode(ref);
+            if (global.retrieveGlobal(op) instanceof MacroFunction) {
+              yield new MacroCallNode(fn, cons, tail);
+            }
+
+            yield new CallNode(fn, analyzeArgs(cons.cdr, scope, global), cons, tail);
+          }
+
+          yield switch (op.special) {
+            case QUOTE -> {
+              var argsLen = Util.consLength(cons.cdr);
+              if (argsLen != 1) {
+                throw new Error(
+                    String.format(
+                        "invalid number of args to quote = expected 1, but got %d", argsLen));
+              }
+
+              yield new ConstantNode(Util.car(cons.cdr));
+            }
+
+            case QUASIQUOTE -> analyzeTemplate(Util.car(cons.cdr), scope, global);
+
+            case UNQUOTE -> throw new Error("unquote can only be used inside quasiquotes");
+
+            case UNQUOTE_SPLICE -> throw new Error(
+                "unquote-splice can only be used inside quasiquotes");
+
+            case DEF -> {
+              if (cons.cdr.isNil()
+                  || Util.cdr(cons.cdr).isNil()
+                  || !Util.cdr(Util.cdr(cons.cdr)).isNil()) {
+                throw new Error("invalid number of arguments for def");
+              }
+
+              if (Util.car(cons.cdr) instanceof Symbol sym) {
+                yield new DefNode(sym, scope, analyze(Util.car(Util.cdr(cons.cdr)), scope, global));
+              } else {
+                throw new Error(
+                    String.format(
+                        "`def` expects a symbol to bind, but got %s", Util.car(cons.cdr)));
+              }
+            }
+
+            case DEFMACRO -> {
+              if (cons.cdr.isNil()) {
+                throw new Error("macro name missing");
+              }
+
+              if (Util.cdr(cons.cdr).isNil()) {
+                throw new Error("macro argumnents missing");
+              }
+
+              if (Util.cdr(Util.cdr(cons.cdr)).isNil()) {
+                throw new Error("macro body missing");
+              }
+
+              if (Util.car(cons.cdr) instanceof Symbol name) {
+                var args = Util.car(Util.cdr(cons.cdr));
+                var body = Util.car(Util.cdr(Util.cdr(cons.cdr)));
+
+                yield new DefmacroNode(name, scope, analyzeLambda(args, body, scope, global));
+              } else {
+                throw new Error(
+                    String.format(
+                        "`defmacro` name must be a symbol, but got %s", Util.car(cons.cdr)));
+              }
+            }
+
+            case DEFUN -> {
+              if (cons.cdr.isNil()) {
+                throw new Error("function name missing");
+              }
+
+              if (Util.cdr(cons.cdr).isNil()) {
+                throw new Error("function arguments missing");
+              }
+
+              if (Util.cdr(Util.cdr(cons.cdr)).isNil()) {
+                throw new Error("function body missing");
+              }
+
+              if (Util.car(cons.cdr) instanceof Symbol name) {
+                var args = Util.car(Util.cdr(cons.cdr));
+                Evaluator.checkParams(args);
+
+                var body = Util.car(Util.cdr(Util.cdr(cons.cdr)));
+
+                yield new DefunNode(name, scope, analyzeLambda(args, body, scope, global));
+              } else {
+                throw new Error(
+                    String.format("`defun` name must be a symbol, but got %s", Util.car(cons.cdr)));
+              }
+            }
+
+            case LAMBDA -> {
+              if (cons.cdr.isNil()) {
+                throw new Error("lambda args missing");
+              }
+
+              if (Util.cdr(cons.cdr).isNil()) {
+                throw new Error("lambda body missing");
+              }
+
+              var args = Util.car(cons.cdr);
+              var body = Util.car(Util.cdr(cons.cdr));
+
+              yield analyzeLambda(args, body, scope, global);
+            }
+
+            case IF -> {
+              var argsLen = Util.consLength(cons.cdr);
+              if (argsLen != 2 && argsLen != 3) {
+                throw new Error(
+                    String.format(
+                        "incorrect number of arguments for `if` - expected between 2 and 3, got"
+                            + " %d",
+                        argsLen));
+              }
+
+              var cond = analyze(Util.car(cons.cdr), scope, global);
+              var trueExpr = analyze(Util.car(Util.cdr(cons.cdr)), scope, global, tail);
+              var falseExpr =
+                  argsLen == 2
+                      ? new ConstantNode(Util.nil)
+                      : analyze(Util.car(Util.cdr(Util.cdr(cons.cdr))), scope, global, tail);
+
+              yield new IfNode(cond, trueExpr, falseExpr);
+            }
+          };
+        }
+
+        yield new CallNode(
+            analyze(cons.car, scope, global), analyzeArgs(cons.cdr, scope, global), cons, tail);
+      }
+
+      default -> throw new Error(String.format("eval for %s is not supported", obj));
+    };
+  }
+
+  private static Node[] analyzeArgs(LispObject args, Scope scope, Environment global) {
+    var nodes = new Node[Util.consLength(args)];
+    for (int i = 0; i < nodes.length; i++) {
+      nodes[i] = analyze(Util.car(args), scope, global);
+      args = Util.cdr(args);
+    }
+
+    return nodes;
+  }
+
+  private static LambdaNode analyzeLambda(
+      LispObject params, LispObject body, Scope scope, Environment global) {
+    var lambdaScope = Resolver.lambdaScope(params, body, scope);
+    var paramCount = lambdaScope.params - (Resolver.hasVararg(params) ? 1 : 0);
+
+    return new LambdaNode(
+        params, body, lambdaScope, paramCount, analyze(body, lambdaScope, global, true));
+  }
+
+  // mirrors Evaluator.quasiQuote
+  private static Node analyzeTemplate(LispObject obj, Scope scope, Environment global) {
+    if (obj instanceof Cons cons) {
+      if (Util.car(cons).equals(Util.unquote)) {
+        return new UnquoteNode(analyze(Util.car(Util.cdr(cons)), scope, global));
+      } else if (Util.car(cons).equals(Util.unquoteSplice)) {
+        return new UnquoteSpliceNode(
+            analyze(Util.car(Util.cdr(cons)), scope, global),
+            analyzeTemplate(Util.cdr(Util.cdr(cons)), scope, global));
+      } else {
+        return new TemplateConsNode(
+            analyzeTemplate(Util.car(cons), scope, global),
+            analyzeTemplate(Util.cdr(cons), scope, global));
+      }
+    } else {
+      return new ConstantNode(obj);
+    }
+  }
+}
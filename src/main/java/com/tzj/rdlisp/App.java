@@ -1,7 +1,11 @@
 package com.tzj.rdlisp;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import jline.console.ConsoleReader;
@@ -9,9 +13,59 @@ import jline.console.ConsoleReader;
 public class App {
   private static final String STDLIB_PATH = "stdlib.lisp";
 
+  // an image of the standard library as built by each engine - see Image
+  private static final String STDLIB_IMAGE_PATH = "stdlib.%s.image";
+
   private static final String PROMPT = "> ";
 
+  private static final String ENGINE_FLAG = "--engine=";
+
+  // serve sessions on a port, or on `unix:<path>`, instead of reading the console
+  private static final String SERVE_FLAG = "--serve=";
+
+  private static final String FRAMING_FLAG = "--framing=";
+
+  private static final String TIMEOUT_FLAG = "--timeout-ms=";
+
+  private static final String MAX_SESSIONS_FLAG = "--max-sessions=";
+
+  // publish the interpreter's counters over JMX - see Metrics
+  private static final String METRICS_FLAG = "--metrics";
+
+  private static Engine engine = Engine.TREE;
+
   public static void main(String[] args) {
+    String serve = null;
+    var framing = Server.Framing.LINE;
+    long timeoutMillis = 0;
+    var maxSessions = 1024;
+
+    for (var arg : args) {
+      if (arg.startsWith(ENGINE_FLAG)) {
+        engine = Engine.named(arg.substring(ENGINE_FLAG.length()));
+      } else if (arg.startsWith(SERVE_FLAG)) {
+        serve = arg.substring(SERVE_FLAG.length());
+      } else if (arg.startsWith(FRAMING_FLAG)) {
+        framing = Server.Framing.named(arg.substring(FRAMING_FLAG.length()));
+      } else if (arg.startsWith(TIMEOUT_FLAG)) {
+        timeoutMillis = Long.parseLong(arg.substring(TIMEOUT_FLAG.length()));
+      } else if (arg.startsWith(MAX_SESSIONS_FLAG)) {
+        maxSessions = java.lang.Integer.parseInt(arg.substring(MAX_SESSIONS_FLAG.length()));
+      } else if (arg.equals(METRICS_FLAG)) {
+        Metrics.register();
+      }
+    }
+
+    if (serve != null) {
+      try {
+        setupStdLib();
+        new Server(Server.address(serve), engine, framing, timeoutMillis, maxSessions).run();
+      } catch (Throwable err) {
+        err.printStackTrace();
+      }
+      return;
+    }
+
     try (ConsoleReader console = new ConsoleReader()) {
       setupStdLib();
 
@@ -22,8 +76,8 @@ public class App {
         try {
           console.setPrompt(App.PROMPT);
           reader = new Reader(new Lexer(console.readLine().trim()));
-          for (var expr : reader.read()) {
-            out.println(Evaluator.eval(Environment.getInitEnv(), expr));
+          while (reader.hasNext()) {
+            out.println(engine.eval(Environment.getInitEnv(), reader.next()));
           }
         } catch (Error err) {
           System.out.println(err);
@@ -34,16 +88,40 @@ public class App {
     }
   }
 
+  // from the image, if it is at least as new as the source, or else from the source - which is
+  // then saved as the image for next time
   private static void setupStdLib() throws IOException {
-    var reader = new Reader(new Lexer(readStdLib()));
-    for (var expr : reader.read()) {
-      Evaluator.eval(Environment.getInitEnv(), expr);
+    var source = Path.of(STDLIB_PATH);
+    var image = Path.of(String.format(STDLIB_IMAGE_PATH, engine.name().toLowerCase()));
+    var root = Environment.getInitEnv();
+
+    if (Files.exists(image)
+        && Files.getLastModifiedTime(image).compareTo(Files.getLastModifiedTime(source)) >= 0) {
+      var event = new StdlibLoadEvent();
+      event.begin();
+      try {
+        Image.load(root, image);
+        event.path = image.toString();
+        event.image = true;
+        event.commit();
+        System.out.println("Loaded up the standard library");
+        return;
+      } catch (IOException err) {
+        System.out.println(err.getMessage());
+      }
     }
 
-    System.out.println("Loaded up the standard library");
-  }
+    var event = new StdlibLoadEvent();
+    event.begin();
+    Interpreter.loadShared(Channels.newReader(FileChannel.open(source), UTF_8), engine);
+    event.path = source.toString();
+    event.commit();
+    try {
+      Image.save(root, image);
+    } catch (IOException err) {
+      System.out.println(String.format("cannot save an image to %s - %s", image, err));
+    }
 
-  private static String readStdLib() throws IOException {
-    return Files.readString(Path.of(STDLIB_PATH));
+    System.out.println("Loaded up the standard library");
   }
 }
@@ -0,0 +1,44 @@
+package com.tzj.rdlisp;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+// The global value of a symbol. Every Symbol carries its own cell, for the root environment, so
+// a global reference reads its value with no table lookup. Binding is a single volatile write -
+// readers take no lock and always see a fully constructed value.
+//
+// An Interpreter's environment has cells of its own, whose parent is the symbol's cell - until
+// the interpreter binds the name itself, reads go through to the root.
+final class Cell {
+  private static final VarHandle VALUE;
+
+  static {
+    try {
+      VALUE = MethodHandles.lookup().findVarHandle(Cell.class, "value", LispObject.class);
+    } catch (ReflectiveOperationException err) {
+      throw new ExceptionInInitializerError(err);
+    }
+  }
+
+  // null while unbound
+  volatile LispObject value;
+  private final Cell parent;
+
+  Cell() {
+    this.parent = null;
+  }
+
+  Cell(final Cell parent) {
+    this.parent = parent;
+  }
+
+  // the value, or the parent's if this cell is unbound
+  LispObject get() {
+    var value = this.value;
+    return value != null || parent == null ? value : parent.value;
+  }
+
+  boolean compareAndSet(LispObject expected, LispObject value) {
+    return VALUE.compareAndSet(this, expected, value);
+  }
+}
@@ -0,0 +1,52 @@
+package com.tzj.rdlisp;
+
+// a form or lambda body compiled for the VM - its code, its constant pool, and the most
+// operands it ever has on the stack
+final class Chunk extends Node {
+  final int[] code;
+  final Object[] constants;
+  final int maxStack;
+
+  Chunk(final int[] code, final Object[] constants, final int maxStack) {
+    this.code = code;
+    this.constants = constants;
+    this.maxStack = maxStack;
+  }
+
+  @Override
+  LispObject execute(Environment env) {
+    return VM.run(this, env);
+  }
+}
+
+// a call to a macro in compiled code. The compiled expansion is cached, and reused for as long
+// as the operator is still bound to the same macro - redefining the macro invalidates it.
+final class MacroSite {
+  private record Expansion(MacroFunction macro, Chunk code) {}
+
+  final GlobalRef op;
+  final Cons form;
+  final boolean tail;
+  private Expansion expansion;
+
+  MacroSite(final Symbol op, final Cons form, final boolean tail) {
+    this.op = new GlobalRef(op);
+    this.form = form;
+    this.tail = tail;
+  }
+
+  Chunk expansion(Environment env) {
+    if (op.lookup(env) instanceof MacroFunction macroFn) {
+      var expansion = this.expansion;
+      if (expansion == null || expansion.macro != macroFn) {
+        var code = Compiler.compile(macroFn.apply(form.cdr), env.scope(), env.global(), tail);
+        expansion = new Expansion(macroFn, code);
+        this.expansion = expansion;
+      }
+      return expansion.code;
+    }
+
+    // no longer a macro
+    return Compiler.compile(form, env.scope(), env.global(), tail);
+  }
+}
@@ -0,0 +1,393 @@
+package com.tzj.rdlisp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// A minimal writer for the class files the Jit emits - a constant pool, and methods with a Code
+// attribute. Nothing else (fields, exception tables, debug info) is supported.
+//
+// Classes are written as version 49 (Java 5), which the JVM still verifies by type inference, so
+// no StackMapTable frames need computing.
+final class ClassWriter {
+  private static final int VERSION = 49;
+  // the limits of a class file - of the entries in its constant pool, and the bytes of a method
+  static final int MAX_POOL = 0xffff;
+  static final int MAX_CODE = 0xffff;
+
+  static final int ACC_PUBLIC = 0x0001;
+  static final int ACC_FINAL = 0x0010;
+  static final int ACC_SUPER = 0x0020;
+
+  private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+  private final DataOutputStream poolOut = new DataOutputStream(pool);
+  private final Map<String, java.lang.Integer> entries = new HashMap<>();
+  private int poolCount = 1;
+
+  private final List<Code> methods = new ArrayList<>();
+  private final int thisClass;
+  private final int superClass;
+
+  ClassWriter(final String name, final String superName) {
+    this.thisClass = classRef(name);
+    this.superClass = classRef(superName);
+  }
+
+  Code method(int access, String name, String descriptor) {
+    var code = new Code(this, access, utf8(name), utf8(descriptor), descriptor);
+    methods.add(code);
+    return code;
+  }
+
+  byte[] toByteArray() {
+    try {
+      var bytes = new ByteArrayOutputStream();
+      var out = new DataOutputStream(bytes);
+      var codeAttr = utf8("Code");
+
+      out.writeInt(0xCAFEBABE);
+      out.writeShort(0);
+      out.writeShort(VERSION);
+      out.writeShort(poolCount);
+      pool.writeTo(out);
+      out.writeShort(ACC_FINAL | ACC_SUPER);
+      out.writeShort(thisClass);
+      out.writeShort(superClass);
+      out.writeShort(0); // interfaces
+      out.writeShort(0); // fields
+
+      out.writeShort(methods.size());
+      for (var method : methods) {
+        method.writeTo(out, codeAttr);
+      }
+
+      out.writeShort(0); // attributes
+      return bytes.toByteArray();
+    } catch (IOException err) {
+      throw new IllegalStateException(err);
+    }
+  }
+
+  /// the constant pool - entries are shared by key
+
+  int utf8(String str) {
+    return entry(
+        "U" + str,
+        () -> {
+          poolOut.writeByte(1);
+          poolOut.writeUTF(str);
+        });
+  }
+
+  int classRef(String internalName) {
+    var name = utf8(internalName);
+    return entry(
+        "C" + internalName,
+        () -> {
+          poolOut.writeByte(7);
+          poolOut.writeShort(name);
+        });
+  }
+
+  int integer(int value) {
+    return entry(
+        "I" + value,
+        () -> {
+          poolOut.writeByte(3);
+          poolOut.writeInt(value);
+        });
+  }
+
+  int fieldRef(String owner, String name, String descriptor) {
+    return memberRef(9, owner, name, descriptor);
+  }
+
+  int methodRef(String owner, String name, String descriptor) {
+    return memberRef(10, owner, name, descriptor);
+  }
+
+  private int memberRef(int tag, String owner, String name, String descriptor) {
+    var classIndex = classRef(owner);
+    var nameIndex = utf8(name);
+    var descIndex = utf8(descriptor);
+    var nameAndType =
+        entry(
+            "N" + name + ":" + descriptor,
+            () -> {
+              poolOut.writeByte(12);
+              poolOut.writeShort(nameIndex);
+              poolOut.writeShort(descIndex);
+            });
+
+    return entry(
+        tag + owner + "." + name + ":" + descriptor,
+        () -> {
+          poolOut.writeByte(tag);
+          poolOut.writeShort(classIndex);
+          poolOut.writeShort(nameAndType);
+        });
+  }
+
+  private interface EntryWriter {
+    void write() throws IOException;
+  }
+
+  private int entry(String key, EntryWriter writer) {
+    var index = entries.get(key);
+    if (index != null) {
+      return index;
+    }
+
+    if (poolCount == MAX_POOL) {
+      throw new IllegalStateException("constant pool too large");
+    }
+    try {
+      writer.write();
+    } catch (IOException err) {
+      throw new IllegalStateException(err);
+    }
+    entries.put(key, poolCount);
+    return poolCount++;
+  }
+}
+
+// The body of one method - an assembler for the handful of instructions the Jit needs. Stack
+// depth is tracked as instructions are added, to size max_stack.
+final class Code {
+  static final String OBJECT = "com/tzj/rdlisp/LispObject";
+
+  // a branch target - `fixups` are the branches to it emitted before it was marked
+  static final class Label {
+    private int offset = -1;
+    private final List<int[]> fixups = new ArrayList<>();
+  }
+
+  private final ClassWriter cw;
+  private final int access;
+  private final int name;
+  private final int descriptor;
+  private byte[] code = new byte[64];
+  private int length;
+  private int depth;
+  private int maxStack;
+  private int maxLocals;
+
+  Code(
+      final ClassWriter cw,
+      final int access,
+      final int name,
+      final int descriptor,
+      final String desc) {
+    this.cw = cw;
+    this.access = access;
+    this.name = name;
+    this.descriptor = descriptor;
+    this.maxLocals = 1 + argSlots(desc);
+  }
+
+  int newLocal() {
+    return maxLocals++;
+  }
+
+  void aload(int local) {
+    local(0x19, 0x2a, local, 1);
+  }
+
+  void astore(int local) {
+    local(0x3a, 0x4b, local, -1);
+  }
+
+  void push(int value) {
+    if (value >= -1 && value <= 5) {
+      op(0x03 + value, 1);
+    } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+      op(0x10, 1);
+      u1(value);
+    } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+      op(0x11, 1);
+      u2(value);
+    } else {
+      op(0x13, 1); // ldc_w
+      u2(cw.integer(value));
+    }
+  }
+
+  void aaload() {
+    op(0x32, -1);
+  }
+
+  void aastore() {
+    op(0x53, -3);
+  }
+
+  void dup() {
+    op(0x59, 1);
+  }
+
+  void areturn() {
+    op(0xb0, -1);
+  }
+
+  void vreturn() {
+    op(0xb1, 0);
+  }
+
+  void getfield(String owner, String name, String desc) {
+    op(0xb4, 0);
+    u2(cw.fieldRef(owner, name, desc));
+  }
+
+  void invokevirtual(String owner, String name, String desc) {
+    invoke(0xb6, owner, name, desc, true);
+  }
+
+  void invokespecial(String owner, String name, String desc) {
+    invoke(0xb7, owner, name, desc, true);
+  }
+
+  void invokestatic(String owner, String name, String desc) {
+    invoke(0xb8, owner, name, desc, false);
+  }
+
+  void anewarray(String type) {
+    op(0xbd, 0);
+    u2(cw.classRef(type));
+  }
+
+  void checkcast(String type) {
+    op(0xc0, 0);
+    u2(cw.classRef(type));
+  }
+
+  void instanceOf(String type) {
+    op(0xc1, 0);
+    u2(cw.classRef(type));
+  }
+
+  void ifeq(Label target) {
+    branch(0x99, -1, target);
+  }
+
+  void ifAcmpne(Label target) {
+    branch(0xa6, -2, target);
+  }
+
+  void goTo(Label target) {
+    branch(0xa7, 0, target);
+  }
+
+  void mark(Label label) {
+    label.offset = length;
+    for (var fixup : label.fixups) {
+      var rel = length - fixup[0];
+      checkBranch(rel);
+      code[fixup[1]] = (byte) (rel >> 8);
+      code[fixup[1] + 1] = (byte) rel;
+    }
+  }
+
+  // the stack depth on arriving at a label that is only reached by a jump
+  void setDepth(int depth) {
+    this.depth = depth;
+  }
+
+  int depth() {
+    return depth;
+  }
+
+  void writeTo(DataOutputStream out, int codeAttr) throws IOException {
+    if (length > ClassWriter.MAX_CODE) {
+      throw new IllegalStateException("method too large");
+    }
+    out.writeShort(access);
+    out.writeShort(name);
+    out.writeShort(descriptor);
+    out.writeShort(1);
+
+    out.writeShort(codeAttr);
+    out.writeInt(12 + length);
+    out.writeShort(maxStack);
+    out.writeShort(maxLocals);
+    out.writeInt(length);
+    out.write(code, 0, length);
+    out.writeShort(0); // exception table
+    out.writeShort(0); // attributes
+  }
+
+  private void local(int opcode, int shortForm, int local, int delta) {
+    if (local <= 3) {
+      op(shortForm + local, delta);
+    } else if (local <= 0xff) {
+      op(opcode, delta);
+      u1(local);
+    } else {
+      op(0xc4, delta); // wide
+      u1(opcode);
+      u2(local);
+    }
+  }
+
+  private void invoke(int opcode, String owner, String name, String desc, boolean hasThis) {
+    var returns = desc.endsWith(")V") ? 0 : 1;
+    op(opcode, returns - argSlots(desc) - (hasThis ? 1 : 0));
+    u2(cw.methodRef(owner, name, desc));
+  }
+
+  private void branch(int opcode, int delta, Label target) {
+    var at = length;
+    op(opcode, delta);
+    if (target.offset >= 0) {
+      var rel = target.offset - at;
+      checkBranch(rel);
+      u2(rel);
+    } else {
+      target.fixups.add(new int[] {at, length});
+      u2(0);
+    }
+  }
+
+  private void checkBranch(int rel) {
+    if (rel < Short.MIN_VALUE || rel > Short.MAX_VALUE) {
+      throw new IllegalStateException("method too large");
+    }
+  }
+
+  private void op(int opcode, int delta) {
+    u1(opcode);
+    depth += delta;
+    maxStack = Math.max(maxStack, depth);
+  }
+
+  private void u1(int value) {
+    if (length == code.length) {
+      code = java.util.Arrays.copyOf(code, code.length * 2);
+    }
+    code[length++] = (byte) value;
+  }
+
+  private void u2(int value) {
+    u1(value >> 8);
+    u1(value);
+  }
+
+  // the local variable slots taken by the arguments of a method descriptor - long and double
+  // arguments (two slots each) are never used
+  private static int argSlots(String desc) {
+    var slots = 0;
+    for (int i = 1; desc.charAt(i) != ')'; i++) {
+      var ch = desc.charAt(i);
+      while (ch == '[') {
+        ch = desc.charAt(++i);
+      }
+      if (ch == 'L') {
+        i = desc.indexOf(';', i);
+      }
+      slots++;
+    }
+    return slots;
+  }
+}
@@ -0,0 +1,114 @@
+package com.tzj.rdlisp;
+
+// The base of the classes the Jit generates for a function body. A generated class overrides
+// the `call` method for its function's arity, and leans on the helpers here for everything
+// that is not a local variable access, a branch or a call.
+abstract class CompiledBody {
+  static final String NAME = "com/tzj/rdlisp/CompiledBody";
+
+  final Object[] constants;
+  final Environment env;
+  final Scope scope;
+  CompiledFunction self;
+
+  protected CompiledBody(final Object[] constants, final Environment env, final Scope scope) {
+    this.constants = constants;
+    this.env = env;
+    this.scope = scope;
+  }
+
+  LispObject call0() {
+    throw arity(0);
+  }
+
+  LispObject call1(LispObject a) {
+    throw arity(1);
+  }
+
+  LispObject call2(LispObject a, LispObject b) {
+    throw arity(2);
+  }
+
+  LispObject call3(LispObject a, LispObject b, LispObject c) {
+    throw arity(3);
+  }
+
+  final Error arity(int argCount) {
+    return new Error(
+        String.format(
+            "incorrect number of arguments in lambda - expected %d, but got %d",
+            scope.names.length, argCount));
+  }
+
+  final LispObject constant(int k) {
+    return (LispObject) constants[k];
+  }
+
+  // the binding of the GlobalRef constants[k]
+  final LispObject global(int k) {
+    var ref = (GlobalRef) constants[k];
+    var binding = ref.lookup(env);
+    if (binding == null) {
+      throw new Error(String.format("%s is not bound", ref.name));
+    }
+    return binding;
+  }
+
+  // null if unbound
+  final LispObject globalOrNull(int k) {
+    return ((GlobalRef) constants[k]).lookup(env);
+  }
+
+  // a parameter of an enclosing lambda
+  final LispObject outer(int depth, int slot) {
+    return env.retrieveLocal(depth, slot);
+  }
+
+  // an interpreter frame over the given parameter values, for the forms left to the Analyzer
+  final Environment frame(LispObject[] slots) {
+    return new Environment(env, scope, slots);
+  }
+
+  final LispObject interpret(int k, Environment frame) {
+    return ((Node) constants[k]).execute(frame);
+  }
+
+  final LispObject call(LispObject fn, int site, LispObject[] args) {
+    return callee(fn, site).applyN(args);
+  }
+
+  // calls of up to MAX_ARITY arguments to functions that are not compiled, without the array
+
+  final LispObject call(LispObject fn, int site) {
+    return callee(fn, site).apply0();
+  }
+
+  final LispObject call(LispObject fn, int site, LispObject a) {
+    return callee(fn, site).apply1(a);
+  }
+
+  final LispObject call(LispObject fn, int site, LispObject a, LispObject b) {
+    return callee(fn, site).apply2(a, b);
+  }
+
+  final LispObject call(LispObject fn, int site, LispObject a, LispObject b, LispObject c) {
+    return callee(fn, site).apply3(a, b, c);
+  }
+
+  // a call in tail position, left for the caller to make
+  final LispObject tailCall(LispObject fn, int site, LispObject[] args) {
+    return new TailCall(callee(fn, site), args);
+  }
+
+  private ApplicableExpression callee(LispObject fn, int site) {
+    if (fn instanceof ApplicableExpression callee) {
+      return callee;
+    }
+    throw new Error(String.format("%s is not a function", ((Cons) constants[site]).car));
+  }
+
+  // makes any tail calls a compiled body returned - for the generated code
+  static LispObject resolve(LispObject result) {
+    return TailCall.resolve(result);
+  }
+}
@@ -0,0 +1,311 @@
+package com.tzj.rdlisp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Compiles forms to Chunks of bytecode for the VM. Macro calls are expanded when they are
+// first executed, and lambda bodies are compiled when the lambda form itself is compiled, so a
+// function's body is compiled exactly once however often it is called.
+//
+// Checks and error messages follow the Analyzer's.
+public class Compiler {
+  private final Scope scope;
+  private final Environment global;
+  private final List<Object> constants = new ArrayList<>();
+  private int[] code = new int[16];
+  private int length;
+  private int depth;
+  private int maxDepth;
+
+  private Compiler(final Scope scope, final Environment global) {
+    this.scope = scope;
+    this.global = global;
+  }
+
+  public static LispObject eval(final Environment env, LispObject obj) {
+    return compile(obj, env.scope(), env.global(), false).execute(env);
+  }
+
+  // `tail` is set for forms in tail position of a lambda body, whose calls become TAILCALLs
+  public static Chunk compile(LispObject obj, Scope scope, Environment global, boolean tail) {
+    var compiler = new Compiler(scope, global);
+    compiler.compile(obj, tail);
+    compiler.emit(Opcode.RETURN);
+
+    return new Chunk(
+        Arrays.copyOf(compiler.code, compiler.length),
+        compiler.constants.toArray(),
+        compiler.maxDepth);
+  }
+
+  private void compile(LispObject obj, boolean tail) {
+    switch (obj) {
+      case Nil nil -> emitConstant(nil);
+
+      case LispNumber num -> emitConstant(num);
+
+      case SelfEvaluating value -> emitConstant(obj);
+
+      case Symbol sym -> {
+        var address = Resolver.address(sym, scope);
+        if (address instanceof LocalRef ref) {
+          emit(Opcode.LOCAL, ref.depth, ref.slot);
+        } else {
+          emit(Opcode.GLOBAL, constant(address));
+        }
+        push(1);
+      }
+
+      case Cons cons -> {
+        if (cons.car instanceof Symbol op && Resolver.address(op, scope) instanceof GlobalRef) {
+          if (op.special == null) {
+            if (global.retrieveGlobal(op) instanceof MacroFunction) {
+              emit(Opcode.MACRO_CALL, constant(new MacroSite(op, cons, tail)));
+              push(1);
+            } else {
+              compileCall(cons, tail);
+            }
+            return;
+          }
+
+          compileSpecialForm(op.special, cons, tail);
+          return;
+        }
+
+        compileCall(cons, tail);
+      }
+
+      default -> throw new Error(String.format("eval for %s is not supported", obj));
+    }
+  }
+
+  private void compileSpecialForm(SpecialForm special, Cons cons, boolean tail) {
+    switch (special) {
+      case QUOTE -> {
+        var argsLen = Util.consLength(cons.cdr);
+        if (argsLen != 1) {
+          throw new Error(
+              String.format("invalid number of args to quote = expected 1, but got %d", argsLen));
+        }
+
+        emitConstant(Util.car(cons.cdr));
+      }
+
+      case QUASIQUOTE -> compileTemplate(Util.car(cons.cdr));
+
+      case UNQUOTE -> throw new Error("unquote can only be used inside quasiquotes");
+
+      case UNQUOTE_SPLICE -> throw new Error("unquote-splice can only be used inside quasiquotes");
+
+      case DEF -> {
+        if (cons.cdr.isNil()
+            || Util.cdr(cons.cdr).isNil()
+            || !Util.cdr(Util.cdr(cons.cdr)).isNil()) {
+          throw new Error("invalid number of arguments for def");
+        }
+
+        if (Util.car(cons.cdr) instanceof Symbol sym) {
+          compile(Util.car(Util.cdr(cons.cdr)), false);
+          emitStore(sym);
+          emit(Opcode.POP);
+          push(-1);
+          emitConstant(sym);
+        } else {
+          throw new Error(
+              String.format("`def` expects a symbol to bind, but got %s", Util.car(cons.cdr)));
+        }
+      }
+
+      case DEFMACRO -> {
+        if (cons.cdr.isNil()) {
+          throw new Error("macro name missing");
+        }
+
+        if (Util.cdr(cons.cdr).isNil()) {
+          throw new Error("macro argumnents missing");
+        }
+
+        if (Util.cdr(Util.cdr(cons.cdr)).isNil()) {
+          throw new Error("macro body missing");
+        }
+
+        if (Util.car(cons.cdr) instanceof Symbol name) {
+          var args = Util.car(Util.cdr(cons.cdr));
+          var body = Util.car(Util.cdr(Util.cdr(cons.cdr)));
+
+          compileLambda(args, body);
+          emit(Opcode.MACRO, constant(name));
+          emitStore(name);
+        } else {
+          throw new Error(
+              String.format("`defmacro` name must be a symbol, but got %s", Util.car(cons.cdr)));
+        }
+      }
+
+      case DEFUN -> {
+        if (cons.cdr.isNil()) {
+          throw new Error("function name missing");
+        }
+
+        if (Util.cdr(cons.cdr).isNil()) {
+          throw new Error("function arguments missing");
+        }
+
+        if (Util.cdr(Util.cdr(cons.cdr)).isNil()) {
+          throw new Error("function body missing");
+        }
+
+        if (Util.car(cons.cdr) instanceof Symbol name) {
+          var args = Util.car(Util.cdr(cons.cdr));
+          Evaluator.checkParams(args);
+
+          var body = Util.car(Util.cdr(Util.cdr(cons.cdr)));
+
+          compileLambda(args, body);
+          emit(Opcode.FUNCTION, constant(name));
+          emitStore(name);
+        } else {
+          throw new Error(
+              String.format("`defun` name must be a symbol, but got %s", Util.car(cons.cdr)));
+        }
+      }
+
+      case LAMBDA -> {
+        if (cons.cdr.isNil()) {
+          throw new Error("lambda args missing");
+        }
+
+        if (Util.cdr(cons.cdr).isNil()) {
+          throw new Error("lambda body missing");
+        }
+
+        compileLambda(Util.car(cons.cdr), Util.car(Util.cdr(cons.cdr)));
+      }
+
+      case IF -> {
+        var argsLen = Util.consLength(cons.cdr);
+        if (argsLen != 2 && argsLen != 3) {
+          throw new Error(
+              String.format(
+                  "incorrect number of arguments for `if` - expected between 2 and 3, got %d",
+                  argsLen));
+        }
+
+        compile(Util.car(cons.cdr), false);
+        var jumpToFalse = emit(Opcode.JUMP_IF_FALSE, 0);
+        push(-1);
+
+        compile(Util.car(Util.cdr(cons.cdr)), tail);
+        var jumpToEnd = emit(Opcode.JUMP, 0);
+        push(-1);
+
+        patch(jumpToFalse);
+        if (argsLen == 2) {
+          emitConstant(Util.nil);
+        } else {
+          compile(Util.car(Util.cdr(Util.cdr(cons.cdr))), tail);
+        }
+        patch(jumpToEnd);
+      }
+    }
+  }
+
+  // the operator, then the arguments left to right
+  private void compileCall(Cons form, boolean tail) {
+    compile(form.car, false);
+    var callee = emit(Opcode.CALLEE, constant(form), 0, tail ? 1 : 0);
+
+    var argc = 0;
+    for (var args = form.cdr; !args.isNil(); args = Util.cdr(args)) {
+      compile(Util.car(args), false);
+      argc++;
+    }
+
+    emit(tail ? Opcode.TAILCALL : Opcode.CALL, argc);
+    push(-argc);
+    code[callee + 2] = length;
+  }
+
+  private void compileLambda(LispObject params, LispObject body) {
+    var lambdaScope = Resolver.lambdaScope(params, body, scope);
+    var paramCount = lambdaScope.params - (Resolver.hasVararg(params) ? 1 : 0);
+
+    var lambda =
+        new LambdaNode(
+            params, body, lambdaScope, paramCount, compile(body, lambdaScope, global, true));
+    emit(Opcode.CLOSURE, constant(lambda));
+    push(1);
+  }
+
+  // mirrors Evaluator.quasiQuote
+  private void compileTemplate(LispObject obj) {
+    if (obj instanceof Cons cons) {
+      if (Util.car(cons).equals(Util.unquote)) {
+        compile(Util.car(Util.cdr(cons)), false);
+        emit(Opcode.LIST1);
+      } else if (Util.car(cons).equals(Util.unquoteSplice)) {
+        compile(Util.car(Util.cdr(cons)), false);
+        compileTemplate(Util.cdr(Util.cdr(cons)));
+        emit(Opcode.APPEND);
+        push(-1);
+      } else {
+        compileTemplate(Util.car(cons));
+        compileTemplate(Util.cdr(cons));
+        emit(Opcode.TEMPLATE_CONS);
+        push(-1);
+      }
+    } else {
+      emitConstant(obj);
+    }
+  }
+
+  private void emitConstant(LispObject obj) {
+    emit(Opcode.CONST, constant(obj));
+    push(1);
+  }
+
+  // binds in the frame `sym` resolves to, or globally
+  private void emitStore(Symbol sym) {
+    if (Resolver.address(sym, scope) instanceof LocalRef ref) {
+      emit(Opcode.STORE_LOCAL, ref.depth, ref.slot);
+    } else {
+      emit(Opcode.STORE_GLOBAL, constant(sym));
+    }
+  }
+
+  // appends an instruction, returning its offset
+  private int emit(int opcode, int... operands) {
+    if (length + operands.length + 1 > code.length) {
+      code = Arrays.copyOf(code, Math.max(code.length * 2, length + operands.length + 1));
+    }
+
+    var offset = length;
+    code[length++] = opcode;
+    for (var operand : operands) {
+      code[length++] = operand;
+    }
+    return offset;
+  }
+
+  // points the jump at `offset` to the next instruction
+  private void patch(int offset) {
+    code[offset + 1] = length;
+  }
+
+  private int constant(Object obj) {
+    for (int i = 0; i < constants.size(); i++) {
+      if (constants.get(i) == obj) {
+        return i;
+      }
+    }
+    constants.add(obj);
+    return constants.size() - 1;
+  }
+
+  // tracks the operand stack depth, for Chunk.maxStack
+  private void push(int n) {
+    depth += n;
+    maxDepth = Math.max(maxDepth, depth);
+  }
+}
@@ -0,0 +1,56 @@
+package com.tzj.rdlisp;
+
+// the interchangeable strategies for evaluating a top-level form
+public enum Engine {
+  // walks the s-expression directly
+  TREE {
+    @Override
+    LispObject evaluate(Environment env, LispObject form) {
+      return Evaluator.eval(env, form);
+    }
+  },
+
+  // compiles the form to a tree of Nodes first, then executes that
+  ANALYZER {
+    @Override
+    LispObject evaluate(Environment env, LispObject form) {
+      return Analyzer.eval(env, form);
+    }
+  },
+
+  // compiles the form to bytecode first, then runs that on the VM
+  VM {
+    @Override
+    LispObject evaluate(Environment env, LispObject form) {
+      return Compiler.eval(env, form);
+    }
+  };
+
+  // the value of `form`, counted by Metrics and recorded as an EvalEvent
+  public LispObject eval(Environment env, LispObject form) {
+    Metrics.form();
+    var event = new EvalEvent();
+    event.begin();
+    try {
+      return evaluate(env, form);
+    } finally {
+      if (event.shouldCommit()) {
+        event.engine = name();
+        event.form = EvalEvent.describe(form);
+        event.commit();
+      }
+    }
+  }
+
+  // as eval, but neither counted nor recorded
+  abstract LispObject evaluate(Environment env, LispObject form);
+
+  public static Engine named(String name) {
+    for (var engine : values()) {
+      if (engine.name().equalsIgnoreCase(name)) {
+        return engine;
+      }
+    }
+    throw new Error(String.format("unknown engine %s", name));
+  }
+}
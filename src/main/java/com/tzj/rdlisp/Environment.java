@@ -3,84 +3,292 @@ package com.tzj.rdlisp;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
+// A lexical environment. A global environment holds the global bindings - the root one in the
+// value cell of each symbol (see Cell), and that of each Interpreter in cells of its own, which
+// read through to the root's until they are bound. Every other environment is a fixed-size
+// activation frame whose slots are laid out by its Scope and which links to the frame (or
+// global environment) it was closed over.
+//
+// Global bindings can be read and (re)bound from any thread - reads take no lock. Frames are
+// not synchronized: a frame is only shared between threads by closures over it, and `def` of a
+// parameter of such a closure is not safe.
 public class Environment {
-  private final Map<Symbol, LispObject> bindings = new HashMap<>();
-  private final Map<String, Symbol> symbols = new HashMap<>();
+  // an Interpreter's own cells - null for the root environment and for frames
+  private final Map<Symbol, Cell> cells;
+  private final Environment parent;
+  private final Environment global;
+  private final Scope scope;
+  private final LispObject[] slots;
 
   private static final Environment initEnv;
 
+  // the root's bindings as it starts out - its builtins, `nil` and `t`
+  private static final Map<Symbol, LispObject> builtins = new HashMap<>();
+
+  // the global environment of the Interpreter evaluating on this thread, if any
+  private static final ThreadLocal<Environment> current = new ThreadLocal<>();
+
   static {
     // initial environment
-    initEnv = new Environment();
-
-    initEnv.addSymbol("nil");
-    initEnv.addSymbol("t");
-    initEnv.addSymbol("cons");
-    initEnv.addSymbol("car");
-    initEnv.addSymbol("cdr");
-    initEnv.addSymbol("+");
-    initEnv.addSymbol("-");
-    initEnv.addSymbol("*");
-    initEnv.addSymbol("/");
-    initEnv.addSymbol("eq?");
-    initEnv.addSymbol("<");
-    initEnv.addSymbol("apply");
-    initEnv.addSymbol("pair?");
-    initEnv.addSymbol("null?");
-    initEnv.addSymbol("number?");
-    initEnv.addSymbol("symbol?");
-
-    initEnv.bindSymbol(initEnv.retrieveSymbol("nil"), new Nil());
-    initEnv.bindSymbol(initEnv.retrieveSymbol("t"), new True());
-    initEnv.bindSymbol(initEnv.retrieveSymbol("cons"), new ConsFunction());
-    initEnv.bindSymbol(initEnv.retrieveSymbol("car"), new CarFunction());
-    initEnv.bindSymbol(initEnv.retrieveSymbol("cdr"), new CdrFunction());
-    initEnv.bindSymbol(initEnv.retrieveSymbol("+"), new AddFunction());
-    initEnv.bindSymbol(initEnv.retrieveSymbol("-"), new SubFunction());
-    initEnv.bindSymbol(initEnv.retrieveSymbol("*"), new MulFunction());
-    initEnv.bindSymbol(initEnv.retrieveSymbol("/"), new DivFunction());
-    initEnv.bindSymbol(initEnv.retrieveSymbol("eq?"), new EqFunction());
-    initEnv.bindSymbol(initEnv.retrieveSymbol("<"), new LessThanFunction());
-    initEnv.bindSymbol(initEnv.retrieveSymbol("apply"), new ApplyFunction());
-    initEnv.bindSymbol(initEnv.retrieveSymbol("pair?"), new PairCheckFunction());
-    initEnv.bindSymbol(initEnv.retrieveSymbol("null?"), new NullCheckFunction());
-    initEnv.bindSymbol(initEnv.retrieveSymbol("number?"), new NumberCheckFunction());
-    initEnv.bindSymbol(initEnv.retrieveSymbol("symbol?"), new SymbolCheckFunction());
-  }
-
-  public void addSymbol(String symStr) {
-    symbols.put(symStr.toUpperCase(), new Symbol(symStr.toUpperCase()));
-  }
-
-  public Symbol retrieveSymbol(String symStr) {
-    return symbols.get(symStr.toUpperCase());
+    initEnv = new Environment(null);
+
+    initEnv.bindSymbol(Util.makeSymbol("nil"), new Nil());
+    initEnv.bindSymbol(Util.makeSymbol("t"), new True());
+    initEnv.bindSymbol(Util.makeSymbol("cons"), new ConsFunction());
+    initEnv.bindSymbol(Util.makeSymbol("car"), new CarFunction());
+    initEnv.bindSymbol(Util.makeSymbol("cdr"), new CdrFunction());
+    initEnv.bindSymbol(Util.makeSymbol("+"), new AddFunction());
+    initEnv.bindSymbol(Util.makeSymbol("-"), new SubFunction());
+    initEnv.bindSymbol(Util.makeSymbol("*"), new MulFunction());
+    initEnv.bindSymbol(Util.makeSymbol("/"), new DivFunction());
+    initEnv.bindSymbol(Util.makeSymbol("eq?"), new EqFunction());
+    initEnv.bindSymbol(Util.makeSymbol("<"), new LessThanFunction());
+    initEnv.bindSymbol(Util.makeSymbol("apply"), new ApplyFunction());
+    initEnv.bindSymbol(Util.makeSymbol("pair?"), new PairCheckFunction());
+    initEnv.bindSymbol(Util.makeSymbol("null?"), new NullCheckFunction());
+    initEnv.bindSymbol(Util.makeSymbol("number?"), new NumberCheckFunction());
+    initEnv.bindSymbol(Util.makeSymbol("symbol?"), new SymbolCheckFunction());
+    initEnv.bindSymbol(Util.makeSymbol("macroexpand-1"), new MacroExpand1Function());
+    initEnv.bindSymbol(Util.makeSymbol("macroexpand"), new MacroExpandFunction());
+    initEnv.bindSymbol(Util.makeSymbol("map"), new MapFunction());
+    initEnv.bindSymbol(Util.makeSymbol("filter"), new FilterFunction());
+    initEnv.bindSymbol(Util.makeSymbol("reverse"), new ReverseFunction());
+    initEnv.bindSymbol(Util.makeSymbol("append"), new AppendFunction());
+    initEnv.bindSymbol(Util.makeSymbol("list*"), new ListStarFunction());
+    initEnv.bindSymbol(Util.makeSymbol("length"), new LengthFunction());
+    initEnv.bindSymbol(Util.makeSymbol("nth"), new NthFunction());
+    initEnv.bindSymbol(Util.makeSymbol("assoc"), new AssocFunction());
+    initEnv.bindSymbol(Util.makeSymbol("member"), new MemberFunction());
+    initEnv.bindSymbol(Util.makeSymbol("make-vector"), new MakeVectorFunction());
+    initEnv.bindSymbol(Util.makeSymbol("vector-ref"), new VectorRefFunction());
+    initEnv.bindSymbol(Util.makeSymbol("vector-set!"), new VectorSetFunction());
+    initEnv.bindSymbol(Util.makeSymbol("vector-length"), new VectorLengthFunction());
+    initEnv.bindSymbol(Util.makeSymbol("make-hash-table"), new MakeHashTableFunction());
+    initEnv.bindSymbol(Util.makeSymbol("hash-ref"), new HashRefFunction());
+    initEnv.bindSymbol(Util.makeSymbol("hash-set!"), new HashSetFunction());
+    initEnv.bindSymbol(Util.makeSymbol("hash-remove!"), new HashRemoveFunction());
+    initEnv.bindSymbol(Util.makeSymbol("hash-count"), new HashCountFunction());
+    for (var kind : NumericArray.Kind.values()) {
+      initEnv.bindSymbol(Util.makeSymbol(kind.typeName()), new ArrayFunction(kind));
+    }
+    initEnv.bindSymbol(Util.makeSymbol("array-ref"), new ArrayRefFunction());
+    initEnv.bindSymbol(Util.makeSymbol("array-set!"), new ArraySetFunction());
+    initEnv.bindSymbol(Util.makeSymbol("array-length"), new ArrayLengthFunction());
+    initEnv.bindSymbol(Util.makeSymbol("array->list"), new ArrayToListFunction());
+    initEnv.bindSymbol(Util.makeSymbol("array-sum"), new ArraySumFunction());
+    initEnv.bindSymbol(Util.makeSymbol("array-dot"), new ArrayDotFunction());
+    initEnv.bindSymbol(Util.makeSymbol("array-map!"), new ArrayMapFunction());
+    initEnv.bindSymbol(Util.makeSymbol("array-sort!"), new ArraySortFunction());
+    initEnv.bindSymbol(Util.makeSymbol("array-slice"), new ArraySliceFunction());
+    initEnv.bindSymbol(Util.makeSymbol("pvector"), new PVectorFunction());
+    initEnv.bindSymbol(Util.makeSymbol("pvector-ref"), new PVectorRefFunction());
+    initEnv.bindSymbol(Util.makeSymbol("pvector-conj"), new PVectorConjFunction());
+    initEnv.bindSymbol(Util.makeSymbol("pvector-assoc"), new PVectorAssocFunction());
+    initEnv.bindSymbol(Util.makeSymbol("pvector-pop"), new PVectorPopFunction());
+    initEnv.bindSymbol(Util.makeSymbol("pvector-length"), new PVectorLengthFunction());
+    initEnv.bindSymbol(Util.makeSymbol("pvector->list"), new PVectorToListFunction());
+    initEnv.bindSymbol(Util.makeSymbol("list->pvector"), new ListToPVectorFunction());
+    initEnv.bindSymbol(Util.makeSymbol("phash"), new PHashFunction());
+    initEnv.bindSymbol(Util.makeSymbol("phash-ref"), new PHashRefFunction());
+    initEnv.bindSymbol(Util.makeSymbol("phash-assoc"), new PHashAssocFunction());
+    initEnv.bindSymbol(Util.makeSymbol("phash-dissoc"), new PHashDissocFunction());
+    initEnv.bindSymbol(Util.makeSymbol("phash-count"), new PHashCountFunction());
+    initEnv.bindSymbol(Util.makeSymbol("phash->list"), new PHashToListFunction());
+    initEnv.bindSymbol(Util.makeSymbol("lazy-seq"), new LazySeqFunction());
+    initEnv.bindSymbol(Util.makeSymbol("lazy-map"), new LazyMapFunction());
+    initEnv.bindSymbol(Util.makeSymbol("lazy-filter"), new LazyFilterFunction());
+    initEnv.bindSymbol(Util.makeSymbol("take"), new TakeFunction());
+    initEnv.bindSymbol(Util.makeSymbol("drop"), new DropFunction());
+    initEnv.bindSymbol(Util.makeSymbol("iterate"), new IterateFunction());
+    initEnv.bindSymbol(Util.makeSymbol("range"), new RangeFunction());
+    initEnv.bindSymbol(Util.makeSymbol("into-list"), new IntoListFunction());
+    initEnv.bindSymbol(Util.makeSymbol("pmap"), new PMapFunction());
+    initEnv.bindSymbol(Util.makeSymbol("pfilter"), new PFilterFunction());
+    initEnv.bindSymbol(Util.makeSymbol("preduce"), new PReduceFunction());
+    initEnv.bindSymbol(Util.makeSymbol("save-image"), new SaveImageFunction());
+    initEnv.bindSymbol(Util.makeSymbol("load-image"), new LoadImageFunction());
+    initEnv.bindSymbol(Util.makeSymbol("profile-start"), new ProfileStartFunction());
+    initEnv.bindSymbol(Util.makeSymbol("profile-report"), new ProfileReportFunction());
+
+    for (var binding : initEnv.bindings()) {
+      builtins.put(binding.getKey(), binding.getValue());
+    }
   }
 
+  private Environment(final Map<Symbol, Cell> cells) {
+    this.cells = cells;
+    this.parent = null;
+    this.global = this;
+    this.scope = null;
+    this.slots = null;
+  }
+
+  public Environment(final Environment parent, final Scope scope, final LispObject[] slots) {
+    this.cells = null;
+    this.parent = parent;
+    this.global = parent.global;
+    this.scope = scope;
+    this.slots = slots;
+  }
+
+  // binds `sym` in the innermost frame that already binds it, or globally otherwise
   public void bindSymbol(Symbol sym, LispObject obj) {
-    bindings.put(sym, obj);
+    for (var env = this; env.scope != null; env = env.parent) {
+      int slot = env.scope.slotOf(sym);
+      if (slot >= 0) {
+        env.slots[slot] = obj;
+        return;
+      }
+    }
+    global.bindGlobal(sym, obj);
   }
 
+  // lookup by name - only needed for forms that have not been through the Resolver
   public LispObject retrieveBinding(Symbol sym) {
-    return bindings.get(sym);
+    for (var env = this; env.scope != null; env = env.parent) {
+      int slot = env.scope.slotOf(sym);
+      // an empty slot is a local defined in the body, read before its definition - the lookup
+      // goes on outwards
+      if (slot >= 0 && env.slots[slot] != null) {
+        return env.slots[slot];
+      }
+    }
+    return global.retrieveGlobal(sym);
+  }
+
+  public LispObject retrieveLocal(int depth, int slot) {
+    var env = this;
+    while (depth-- > 0) {
+      env = env.parent;
+    }
+    var value = env.slots[slot];
+    return value != null ? value : env.unboundLocal(slot);
+  }
+
+  // a local defined in the body, read before its definition - whatever the name is bound to in
+  // the enclosing frames, or globally, until then
+  private LispObject unboundLocal(int slot) {
+    var sym = scope.names[slot];
+    var value = parent.retrieveBinding(sym);
+    if (value == null) {
+      throw new Error(String.format("%s is not bound", sym));
+    }
+    return value;
+  }
+
+  public void bindLocal(int depth, int slot, LispObject obj) {
+    var env = this;
+    while (depth-- > 0) {
+      env = env.parent;
+    }
+    env.slots[slot] = obj;
+  }
+
+  public void bindGlobal(Symbol sym, LispObject obj) {
+    global.cell(sym).value = obj;
+  }
+
+  // rebinds `sym` only if it is still bound to `expected`
+  public boolean rebindGlobal(Symbol sym, LispObject expected, LispObject obj) {
+    return global.cell(sym).compareAndSet(expected, obj);
+  }
+
+  public LispObject retrieveGlobal(Symbol sym) {
+    var cells = global.cells;
+    if (cells == null) {
+      return sym.cell.value;
+    }
+
+    var cell = cells.get(sym);
+    return cell != null ? cell.get() : sym.cell.value;
+  }
+
+  // the cell holding the global binding of `sym` here - see GlobalRef, which keeps it
+  Cell cell(Symbol sym) {
+    var cells = global.cells;
+    return cells == null ? sym.cell : cells.computeIfAbsent(sym, s -> new Cell(s.cell));
+  }
+
+  // a global environment of its own, over the root one
+  static Environment isolate() {
+    return new Environment(new ConcurrentHashMap<>());
+  }
+
+  // evaluates `body` with `global` as the current environment of this thread
+  static <T> T within(Environment global, Supplier<T> body) {
+    var previous = current.get();
+    current.set(global);
+    try {
+      return body.get();
+    } finally {
+      current.set(previous);
+    }
+  }
+
+  // the global environment for operations that are not given one, such as `macroexpand`
+  static Environment current() {
+    var global = current.get();
+    return global != null ? global : initEnv;
+  }
+
+  public Scope scope() {
+    return scope;
+  }
+
+  Environment parent() {
+    return parent;
+  }
+
+  LispObject[] slots() {
+    return slots;
+  }
+
+  public Environment global() {
+    return global;
   }
 
+  // a snapshot of the global bindings, by name
   public Set<Map.Entry<Symbol, LispObject>> bindings() {
+    var bindings = new TreeMap<Symbol, LispObject>((a, b) -> a.sym.compareTo(b.sym));
+    for (var sym : SymbolTable.symbols()) {
+      var value = retrieveGlobal(sym);
+      if (value != null) {
+        bindings.put(sym, value);
+      }
+    }
     return bindings.entrySet();
   }
 
-  public Environment clone() {
-    Environment newEnv = new Environment();
-
-    for (var binding : bindings()) {
-      var sym = binding.getKey();
-      var val = binding.getValue();
+  // the global bindings made here rather than read through to the root, by name - for the root
+  // environment itself, all but its builtins
+  Map<Symbol, LispObject> definitions() {
+    var definitions = new TreeMap<Symbol, LispObject>((a, b) -> a.sym.compareTo(b.sym));
+    var cells = global.cells;
+    if (cells != null) {
+      for (var entry : cells.entrySet()) {
+        var value = entry.getValue().value;
+        if (value != null) {
+          definitions.put(entry.getKey(), value);
+        }
+      }
+      return definitions;
+    }
 
-      newEnv.addSymbol(sym.sym);
-      newEnv.bindSymbol(newEnv.retrieveSymbol(sym.sym), val);
+    for (var sym : SymbolTable.symbols()) {
+      var value = sym.cell.value;
+      if (value != null && value != builtins.get(sym)) {
+        definitions.put(sym, value);
+      }
     }
+    return definitions;
+  }
 
-    return newEnv;
+  static Map<Symbol, LispObject> builtins() {
+    return builtins;
   }
 
   public static Environment getInitEnv() {
@@ -90,7 +298,7 @@ public class Environment {
   @Override
   public String toString() {
     var sb = new StringBuffer();
-    for (var binding : bindings.entrySet()) {
+    for (var binding : bindings()) {
       sb.append(binding.getKey())
           .append("(hash: ")
           .append(binding.getKey().hashCode())
@@ -1,233 +1,343 @@
 package com.tzj.rdlisp;
 
 public class Evaluator {
-  public static LispObject eval(final Environment env, LispObject obj) {
-    return switch (obj) {
-      case Nil nil -> nil;
+  public static LispObject eval(Environment env, LispObject obj) {
+    if (Metrics.enabled) {
+      Metrics.enter();
+      try {
+        return profiledEval(env, obj);
+      } finally {
+        Metrics.exit();
+      }
+    }
+    return profiledEval(env, obj);
+  }
 
-      case Integer num -> num;
+  private static LispObject profiledEval(Environment env, LispObject obj) {
+    if (Profiler.enabled) {
+      var mark = Profiler.mark();
+      try {
+        return eval(env, obj, mark);
+      } finally {
+        Profiler.unwind(mark);
+      }
+    }
+    return eval(env, obj, -1);
+  }
 
-      case Symbol sym -> {
-        var symBinding = env.retrieveBinding(sym);
-        if (symBinding == null) {
-          throw new Error(String.format("%s is not bound", sym));
+  // `mark` is the depth of the Profiler's stack when this evaluation began, or -1 if it is off
+  static LispObject eval(Environment env, LispObject obj, int mark) {
+    return eval(env, obj, mark, false);
+  }
+
+  // a lambda's body, for a trampoline - a call in tail position to a closure of another engine, or
+  // to a compiled function, is returned as a TailCall rather than made
+  static LispObject evalBody(Environment env, LispObject body) {
+    return eval(env, body, -1, true);
+  }
+
+  private static LispObject eval(Environment env, LispObject obj, int mark, boolean tail) {
+    // calls and `if`s in tail position loop here rather than recursing, so that iterative
+    // Lisp code runs in constant Java stack
+    while (true) {
+      switch (obj) {
+        case Nil nil -> {
+          return nil;
         }
 
-        yield symBinding;
-      }
+        case LispNumber num -> {
+          return num;
+        }
 
-      case Cons cons -> {
-        if (cons.car instanceof Symbol op) {
-          yield switch (op.sym) {
-            case "QUOTE" -> {
-              var argsLen = Util.consLength(cons.cdr);
-              if (argsLen != 1) {
-                throw new Error(
-                    String.format(
-                        "invalid number of args to quote = expected 1, but got %d", argsLen));
-              }
+        case SelfEvaluating value -> {
+          return obj;
+        }
 
-              yield Util.car(cons.cdr);
-            }
+        case Symbol sym -> {
+          var symBinding = env.retrieveBinding(sym);
+          if (symBinding == null) {
+            throw new Error(String.format("%s is not bound", sym));
+          }
 
-            case "QUASIQUOTE" -> {
-              yield quasiQuote(env, Util.car(cons.cdr));
-            }
+          return symBinding;
+        }
 
-            case "UNQUOTE" -> {
-              throw new Error("unquote can only be used inside quasiquotes");
-            }
+        case LocalRef ref -> {
+          return env.retrieveLocal(ref.depth, ref.slot);
+        }
 
-            case "UNQUOTE-SPLICE" -> {
-              throw new Error("unquote-splice can only be used inside quasiquotes");
-            }
+        case GlobalRef ref -> {
+          var symBinding = ref.lookup(env);
+          if (symBinding == null) {
+            throw new Error(String.format("%s is not bound", ref.name));
+          }
 
-            case "DEF" -> {
-              if (cons.cdr.isNil()
-                  || Util.cdr(cons.cdr).isNil()
-                  || !Util.cdr(Util.cdr(cons.cdr)).isNil()) {
-                throw new Error("invalid number of arguments for def");
-              }
+          return symBinding;
+        }
 
-              if (Util.car(cons.cdr) instanceof Symbol sym) {
-                var symVal = Evaluator.eval(env, Util.car(Util.cdr(cons.cdr)));
-                env.bindSymbol(sym, symVal);
+        case LambdaTemplate template -> {
+          return new LambdaExpression(env, template);
+        }
 
-                // since the binding in the current environment was done after the
-                // env for the closure was already passed in
-                if (symVal instanceof LambdaExpression lambda) {
-                  lambda.env.bindSymbol(sym, symVal);
+        case MacroCallSite site -> {
+          if (site.operator.lookup(env) instanceof MacroFunction macroFn) {
+            obj = site.expand(env, macroFn);
+          } else {
+            // no longer a macro
+            obj = site.form;
+          }
+          continue;
+        }
+
+        case Cons cons -> {
+          LispObject binding;
+          if (cons.car instanceof Symbol op) {
+            if (op.special != null) {
+              switch (op.special) {
+                case QUOTE -> {
+                  var argsLen = Util.consLength(cons.cdr);
+                  if (argsLen != 1) {
+                    throw new Error(
+                        String.format(
+                            "invalid number of args to quote = expected 1, but got %d", argsLen));
+                  }
+
+                  return Util.car(cons.cdr);
                 }
 
-                yield sym;
-              } else {
-                throw new Error(
-                    String.format(
-                        "`def` expects a symbol to bind, but got %s", Util.car(cons.cdr)));
-              }
-            }
+                case QUASIQUOTE -> {
+                  return quasiQuote(env, Util.car(cons.cdr));
+                }
 
-            case "DEFMACRO" -> {
-              if (cons.cdr.isNil()) {
-                throw new Error("macro name missing");
-              }
+                case UNQUOTE -> {
+                  throw new Error("unquote can only be used inside quasiquotes");
+                }
 
-              if (Util.cdr(cons.cdr).isNil()) {
-                throw new Error("macro argumnents missing");
-              }
+                case UNQUOTE_SPLICE -> {
+                  throw new Error("unquote-splice can only be used inside quasiquotes");
+                }
 
-              if (Util.cdr(Util.cdr(cons.cdr)).isNil()) {
-                throw new Error("macro body missing");
-              }
+                case DEF -> {
+                  if (cons.cdr.isNil()
+                      || Util.cdr(cons.cdr).isNil()
+                      || !Util.cdr(Util.cdr(cons.cdr)).isNil()) {
+                    throw new Error("invalid number of arguments for def");
+                  }
 
-              if (Util.car(cons.cdr) instanceof Symbol name) {
-                var args = Util.car(Util.cdr(cons.cdr));
-                var body = Util.car(Util.cdr(Util.cdr(cons.cdr)));
+                  if (Util.car(cons.cdr) instanceof Symbol sym) {
+                    var symVal = Evaluator.eval(env, Util.car(Util.cdr(cons.cdr)));
+                    env.bindSymbol(sym, symVal);
+                    return sym;
+                  } else {
+                    throw new Error(
+                        String.format(
+                            "`def` expects a symbol to bind, but got %s", Util.car(cons.cdr)));
+                  }
+                }
 
-                var macroFn = new MacroFunction(env, name, args, body);
-                env.bindSymbol(name, macroFn);
+                case DEFMACRO -> {
+                  if (cons.cdr.isNil()) {
+                    throw new Error("macro name missing");
+                  }
 
-                yield macroFn;
-              } else {
-                throw new Error(
-                    String.format(
-                        "`defmacro` name must be a symbol, but got %s", Util.car(cons.cdr)));
-              }
-            }
+                  if (Util.cdr(cons.cdr).isNil()) {
+                    throw new Error("macro argumnents missing");
+                  }
 
-            case "DEFUN" -> {
-              if (cons.cdr.isNil()) {
-                throw new Error("function name missing");
-              }
+                  if (Util.cdr(Util.cdr(cons.cdr)).isNil()) {
+                    throw new Error("macro body missing");
+                  }
 
-              if (Util.cdr(cons.cdr).isNil()) {
-                throw new Error("function arguments missing");
-              }
+                  if (Util.car(cons.cdr) instanceof Symbol name) {
+                    var args = Util.car(Util.cdr(cons.cdr));
+                    var body = Util.car(Util.cdr(Util.cdr(cons.cdr)));
 
-              if (Util.cdr(Util.cdr(cons.cdr)).isNil()) {
-                throw new Error("function body missing");
-              }
+                    var macroFn = new MacroFunction(env, name, args, body);
+                    env.bindSymbol(name, macroFn);
+
+                    return macroFn;
+                  } else {
+                    throw new Error(
+                        String.format(
+                            "`defmacro` name must be a symbol, but got %s", Util.car(cons.cdr)));
+                  }
+                }
+
+                case DEFUN -> {
+                  if (cons.cdr.isNil()) {
+                    throw new Error("function name missing");
+                  }
 
-              if (Util.car(cons.cdr) instanceof Symbol name) {
-                var args = Util.car(Util.cdr(cons.cdr));
-
-                // type-check varargs, if present
-                int varargCount = 0;
-                var argsPtr = args;
-
-                while (!argsPtr.isNil()) {
-                  var param = Util.car(argsPtr);
-                  if (!param.isCons()) {
-                    if (varargCount != 0) {
-                      throw new Error("cannot define &rest after required positional params");
-                    }
-                  } else if (param.isCons() && Util.car(param) == Util.vararg) {
-                    varargCount++;
+                  if (Util.cdr(cons.cdr).isNil()) {
+                    throw new Error("function arguments missing");
+                  }
+
+                  if (Util.cdr(Util.cdr(cons.cdr)).isNil()) {
+                    throw new Error("function body missing");
+                  }
+
+                  if (Util.car(cons.cdr) instanceof Symbol name) {
+                    var args = Util.car(Util.cdr(cons.cdr));
+
+                    checkParams(args);
+
+                    var body = Util.car(Util.cdr(Util.cdr(cons.cdr)));
+
+                    var fn = new Function(env, name, args, body);
+                    env.bindSymbol(name, fn);
+
+                    return fn;
+                  } else {
+                    throw new Error(
+                        String.format(
+                            "`defun` name must be a symbol, but got %s", Util.car(cons.cdr)));
                   }
-                  argsPtr = Util.cdr(argsPtr);
                 }
 
-                if (varargCount > 1) {
-                  throw new Error(
-                      String.format(
-                          "can have at most one &rest param declaration, but got %d", varargCount));
+                case LAMBDA -> {
+                  if (cons.cdr.isNil()) {
+                    throw new Error("lambda args missing");
+                  }
+
+                  if (Util.cdr(cons.cdr).isNil()) {
+                    throw new Error("lambda body missing");
+                  }
+
+                  var args = Util.car(cons.cdr);
+                  var body = Util.car(Util.cdr(cons.cdr));
+
+                  return new LambdaExpression(env, args, body);
                 }
 
-                var body = Util.car(Util.cdr(Util.cdr(cons.cdr)));
+                case IF -> {
+                  var argsLen = Util.consLength(cons.cdr);
+                  if (argsLen != 2 && argsLen != 3) {
+                    throw new Error(
+                        String.format(
+                            "incorrect number of arguments for `if` - expected between 2 and 3, got"
+                                + " %d",
+                            argsLen));
+                  }
 
-                var fn = new Function(env, name, args, body);
-                env.bindSymbol(name, fn);
+                  var cond = Util.car(cons.cdr);
 
-                yield fn;
-              } else {
-                throw new Error(
-                    String.format("`defun` name must be a symbol, but got %s", Util.car(cons.cdr)));
+                  if (Evaluator.eval(env, cond).isTrue()) {
+                    obj = Util.car(Util.cdr(cons.cdr));
+                  } else if (argsLen == 2) {
+                    return Util.nil;
+                  } else {
+                    obj = Util.car(Util.cdr(Util.cdr(cons.cdr)));
+                  }
+                  continue;
+                }
               }
             }
 
-            case "LAMBDA" -> {
-              var closureEnv = env.clone();
+            binding = env.retrieveBinding(op);
+          } else {
+            binding = Evaluator.eval(env, cons.car);
+          }
 
-              if (cons.cdr.isNil()) {
-                throw new Error("lambda args missing");
-              }
+          if (binding instanceof ApplicableExpression fn) {
+            if (fn instanceof MacroFunction macroFn) {
+              obj = macroFn.apply(Resolver.unresolve(cons.cdr));
+              continue;
+            }
 
-              if (Util.cdr(cons.cdr).isNil()) {
-                throw new Error("lambda body missing");
+            var args = cons.cdr;
+            var lambda = fn.lambda();
+            if (lambda != null && lambda.isTreeWalked()) {
+              env = lambda.bind(evalArgs(env, args));
+              obj = lambda.body;
+              if (mark >= 0) {
+                Profiler.call(fn, mark);
               }
+              continue;
+            }
 
-              var args = Util.car(cons.cdr);
-              var body = Util.car(Util.cdr(cons.cdr));
+            if (tail && fn.isTailCallable()) {
+              return new TailCall(fn, evalArgs(env, args));
+            }
 
-              yield new LambdaExpression(closureEnv, args, body);
+            if (Profiler.enabled && fn instanceof BuiltinFunction) {
+              var values = evalArgs(env, args);
+              return Profiler.profile(fn, () -> fn.applyN(values));
             }
 
-            case "IF" -> {
-              var argsLen = Util.consLength(cons.cdr);
-              if (argsLen != 2 && argsLen != 3) {
-                throw new Error(
-                    String.format(
-                        "incorrect number of arguments for `if` - expected between 2 and 3, got"
-                            + " %d",
-                        argsLen));
+            // up to three arguments are passed without an array
+            switch (Util.consLength(args)) {
+              case 0 -> {
+                return fn.apply0();
               }
-
-              var cond = Util.car(cons.cdr);
-              var true_expr = Util.car(Util.cdr(cons.cdr));
-
-              if (argsLen == 2) {
-                yield Evaluator.eval(env, cond).isTrue()
-                    ? Evaluator.eval(env, true_expr)
-                    : Util.nil;
-              } else {
-                var false_expr = Util.car(Util.cdr(Util.cdr(cons.cdr)));
-                yield Evaluator.eval(env, cond).isTrue()
-                    ? Evaluator.eval(env, true_expr)
-                    : Evaluator.eval(env, false_expr);
+              case 1 -> {
+                return fn.apply1(Evaluator.eval(env, Util.car(args)));
               }
-            }
-
-            default -> {
-              var binding = env.retrieveBinding(op);
-              if (binding == null) {
-                // if not found in the current scope, try in the global env
-                binding = Environment.getInitEnv().retrieveBinding(op);
+              case 2 -> {
+                var a = Evaluator.eval(env, Util.car(args));
+                var b = Evaluator.eval(env, Util.car(Util.cdr(args)));
+                return fn.apply2(a, b);
               }
-
-              if (binding instanceof ApplicableExpression fn) {
-                var args = Util.copyList(cons.cdr);
-
-                if (fn instanceof MacroFunction macroFn) {
-                  var expansion = macroFn.apply(args);
-                  yield Evaluator.eval(env, expansion);
-                } else {
-                  var argPtr = args;
-                  while (argPtr != Util.nil) {
-                    if (argPtr instanceof Cons pair) {
-                      pair.car = Evaluator.eval(env, pair.car);
-                      argPtr = pair.cdr;
-                    }
-                  }
-                  yield fn.apply(args);
-                }
-              } else {
-                throw new Error(String.format("%s is not a function", op));
+              case 3 -> {
+                var a = Evaluator.eval(env, Util.car(args));
+                var b = Evaluator.eval(env, Util.car(Util.cdr(args)));
+                var c = Evaluator.eval(env, Util.car(Util.cdr(Util.cdr(args))));
+                return fn.apply3(a, b, c);
+              }
+              default -> {
+                return fn.applyN(evalArgs(env, args));
               }
             }
-          };
-        } else if (cons.car instanceof Cons maybeLambda) {
-          if (Evaluator.eval(env, maybeLambda) instanceof LambdaExpression lambda) {
-            yield lambda.apply(cons.cdr);
           } else {
-            throw new Error(String.format("%s is not a lambda", cons.car));
+            throw new Error(String.format("%s is not a function", cons.car));
           }
-        } else {
-          throw new Error(String.format("%s is not an operator", cons.car));
         }
+
+        default -> throw new Error(String.format("eval for %s is not supported", obj));
       }
+    }
+  }
+
+  // allocation counters, so the garbage produced by a piece of Lisp code can be measured -
+  // counted, across all threads, while Metrics are enabled
+  public static long integersAllocated() {
+    return Metrics.integers.sum();
+  }
 
-      default -> throw new Error(String.format("eval for %s is not supported", obj));
-    };
+  public static long consesAllocated() {
+    return Metrics.conses.sum();
+  }
+
+  private static LispObject[] evalArgs(Environment env, LispObject args) {
+    var values = new LispObject[Util.consLength(args)];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = Evaluator.eval(env, Util.car(args));
+      args = Util.cdr(args);
+    }
+
+    return values;
+  }
+
+  // type-check varargs, if present
+  static void checkParams(LispObject args) {
+    int varargCount = 0;
+    var argsPtr = args;
+
+    while (!argsPtr.isNil()) {
+      var param = Util.car(argsPtr);
+      if (!param.isCons()) {
+        if (varargCount != 0) {
+          throw new Error("cannot define &rest after required positional params");
+        }
+      } else if (param.isCons() && Util.car(param) == Util.vararg) {
+        varargCount++;
+      }
+      argsPtr = Util.cdr(argsPtr);
+    }
+
+    if (varargCount > 1) {
+      throw new Error(
+          String.format("can have at most one &rest param declaration, but got %d", varargCount));
+    }
   }
 
   private static LispObject quasiQuote(Environment env, LispObject obj) {
@@ -0,0 +1,54 @@
+package com.tzj.rdlisp;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// Flight Recorder events for Lisp-level activity, so that JDK tooling can attribute time and
+// allocation to it - e.g. `java -XX:StartFlightRecording=filename=rec.jfr ...`, then
+// `jfr print --events com.tzj.rdlisp.Eval rec.jfr`. While no recording is running, creating and
+// timing one costs next to nothing.
+
+@Name("com.tzj.rdlisp.Eval")
+@Label("Lisp Evaluation")
+@Category("rd-lisp")
+@Description("A top-level form evaluated by an engine")
+@StackTrace(false)
+final class EvalEvent extends Event {
+  @Label("Engine")
+  String engine;
+
+  @Label("Form")
+  String form;
+
+  // forms can be large - the start of one is enough to recognize it
+  static String describe(LispObject form) {
+    var text = form.toString();
+    return text.length() <= 200 ? text : text.substring(0, 200) + "...";
+  }
+}
+
+@Name("com.tzj.rdlisp.MacroExpansion")
+@Label("Macro Expansion")
+@Category("rd-lisp")
+@StackTrace(false)
+final class MacroExpansionEvent extends Event {
+  @Label("Macro")
+  String macro;
+}
+
+@Name("com.tzj.rdlisp.StdlibLoad")
+@Label("Standard Library Load")
+@Category("rd-lisp")
+@StackTrace(false)
+final class StdlibLoadEvent extends Event {
+  @Label("Path")
+  String path;
+
+  @Label("From Image")
+  @Description("Whether the library was loaded from its image rather than evaluated from source")
+  boolean image;
+}
@@ -0,0 +1,577 @@
+package com.tzj.rdlisp;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+// A snapshot of the definitions of a global environment, in a compact binary file - loading one
+// is a single pass over the mapped file, with no lexing, reading or evaluating of source. App
+// keeps an image of the standard library this way.
+//
+// Every object is written once, and again only as a reference to its first occurrence, so lists
+// keep their shared structure and cycles. References, lengths and integers are varints.
+// Functions, macros and closures are written as their parameter lists and (unresolved) bodies,
+// with the frames they close over, and are rebuilt on loading by the engine that built them.
+// Builtins are written by name. An image of an Interpreter's environment refers to the root's
+// functions by name rather than copying them. A definition holding something that cannot be saved
+// - a lazy sequence, say - is left out.
+public final class Image {
+  private static final int MAGIC = 0x52444c49; // "RDLI"
+  private static final int VERSION = 1;
+
+  /// tags of objects
+  private static final byte REF = 0; // an object already read, by its index
+  private static final byte NIL = 1;
+  private static final byte T = 2;
+  private static final byte INTEGER = 3;
+  private static final byte BIGNUM = 4;
+  private static final byte FLONUM = 5;
+  private static final byte SYMBOL = 6;
+  private static final byte CONS = 7;
+  private static final byte BUILTIN = 8;
+  private static final byte FUNCTION = 9;
+  private static final byte MACRO = 10;
+  private static final byte LAMBDA = 11;
+  private static final byte SHARED = 12; // the root's binding of a name
+  private static final byte UNBOUND = 13;
+
+  /// tags of the environments closures are closed over
+  private static final byte GLOBAL = 14; // the environment being saved, or loaded into
+  private static final byte ROOT = 15;
+  private static final byte FRAME = 16;
+
+  /// tags of objects added since
+  private static final byte VECTOR = 17;
+  private static final byte HASH_TABLE = 18;
+  private static final byte NUMERIC_ARRAY = 19; // a slice is written as a copy of its elements
+  private static final byte PERSISTENT_VECTOR = 20;
+  private static final byte PERSISTENT_MAP = 21;
+
+  private Image() {}
+
+  // writes the definitions of `global` (see Environment.definitions) to `path`, replacing it -
+  // returning the names of those that could not be saved, and were left out
+  public static List<Symbol> save(Environment global, Path path) throws IOException {
+    var definitions = global.definitions();
+    var encoded = new ArrayList<byte[]>();
+    var skipped = new ArrayList<Symbol>();
+
+    // macros first, so the functions using them are compiled as macro calls when loaded
+    var encoder = new Encoder(global);
+    for (var macros : new boolean[] {true, false}) {
+      for (var definition : definitions.entrySet()) {
+        if (definition.getValue() instanceof MacroFunction == macros) {
+          var bytes = encoder.writeDefinition(definition.getKey(), definition.getValue());
+          if (bytes != null) {
+            encoded.add(bytes);
+          } else {
+            skipped.add(definition.getKey());
+          }
+        }
+      }
+    }
+
+    var temp = Files.createTempFile(path.toAbsolutePath().getParent(), "rdlisp", ".image");
+    try {
+      try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(encoded.size());
+        for (var bytes : encoded) {
+          out.write(bytes);
+        }
+      }
+      Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+    return skipped;
+  }
+
+  // binds the definitions saved in `path` in `global`
+  public static void load(Environment global, Path path) throws IOException {
+    try (var channel = FileChannel.open(path)) {
+      var in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (in.remaining() < 12 || in.getInt() != MAGIC || in.getInt() != VERSION) {
+        throw new IOException(String.format("%s is not an image of this version", path));
+      }
+
+      var decoder = new Decoder(in, global);
+      var count = in.getInt();
+      for (int i = 0; i < count; i++) {
+        var name = decoder.read();
+        var value = decoder.read();
+        decoder.readFrames();
+        global.bindGlobal((Symbol) name, value);
+      }
+    } catch (RuntimeException err) {
+      throw new IOException(String.format("%s is corrupt - %s", path, err), err);
+    }
+  }
+
+  private static final class Encoder {
+    // of the definition being written
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(buffer);
+    private final Environment global;
+    private final IdentityHashMap<Object, java.lang.Integer> ids = new IdentityHashMap<>();
+    // the keys of `ids`, by id - so that those of a definition left out can be forgotten
+    private final ArrayList<Object> written = new ArrayList<>();
+    private final IdentityHashMap<LispObject, Symbol> builtins = new IdentityHashMap<>();
+    // frames written whose slots are not yet - see writeFrames
+    private final ArrayDeque<Environment> frames = new ArrayDeque<>();
+
+    Encoder(final Environment global) {
+      this.global = global;
+      for (var builtin : Environment.builtins().entrySet()) {
+        builtins.put(builtin.getValue(), builtin.getKey());
+      }
+    }
+
+    // the encoding of `name` bound to `value`, and of the frames it leads to - or null, with
+    // nothing of it remembered, if any of that cannot be saved
+    byte[] writeDefinition(Symbol name, LispObject value) throws IOException {
+      var mark = written.size();
+      buffer.reset();
+      try {
+        write(name);
+        write(value);
+        writeFrames();
+      } catch (Error unsaveable) {
+        while (written.size() > mark) {
+          ids.remove(written.remove(written.size() - 1));
+        }
+        frames.clear();
+        return null;
+      }
+      out.flush();
+      return buffer.toByteArray();
+    }
+
+    private void remember(Object obj) {
+      ids.put(obj, written.size());
+      written.add(obj);
+    }
+
+    void write(LispObject obj) throws IOException {
+      // the spine of a list is written iteratively - each cons is followed by its car, then cdr
+      while (obj instanceof Cons cons && !ids.containsKey(cons)) {
+        remember(cons);
+        out.writeByte(CONS);
+        write(cons.car);
+        obj = cons.cdr;
+      }
+
+      if (obj == null) {
+        out.writeByte(UNBOUND);
+        return;
+      }
+
+      var id = ids.get(obj);
+      if (id != null) {
+        out.writeByte(REF);
+        writeVarint(id);
+        return;
+      }
+
+      switch (obj) {
+        case Nil nil -> out.writeByte(NIL);
+        case True t -> out.writeByte(T);
+        case Integer num -> {
+          out.writeByte(INTEGER);
+          writeVarint(num.integer << 1 ^ num.integer >> 31);
+        }
+        case Bignum num -> {
+          var bytes = num.bignum.toByteArray();
+          out.writeByte(BIGNUM);
+          writeVarint(bytes.length);
+          out.write(bytes);
+        }
+        case Flonum num -> {
+          out.writeByte(FLONUM);
+          out.writeDouble(num.flonum);
+        }
+        case Symbol sym -> {
+          remember(sym);
+          var name = sym.sym.getBytes(UTF_8);
+          out.writeByte(SYMBOL);
+          writeVarint(name.length);
+          out.write(name);
+        }
+        case BuiltinFunction fn -> {
+          var name = builtins.get(fn);
+          if (name == null) {
+            throw new Error(String.format("%s cannot be saved in an image", fn));
+          }
+          out.writeByte(BUILTIN);
+          write(name);
+        }
+        case CompiledFunction fn -> write(fn.function);
+        case Function fn -> {
+          if (isShared(fn.name, fn)) {
+            return;
+          }
+          remember(fn);
+          out.writeByte(FUNCTION);
+          write(fn.name);
+          writeLambda(fn.lambda());
+        }
+        case MacroFunction fn -> {
+          if (isShared(fn.name, fn)) {
+            return;
+          }
+          remember(fn);
+          out.writeByte(MACRO);
+          write(fn.name);
+          writeLambda(fn.lambda);
+        }
+        case LambdaExpression lambda -> {
+          remember(lambda);
+          out.writeByte(LAMBDA);
+          writeLambda(lambda);
+        }
+        case Vector vec -> {
+          remember(vec);
+          out.writeByte(VECTOR);
+          writeVarint(vec.items.length);
+          for (var item : vec.items) {
+            write(item);
+          }
+        }
+        case HashTable table -> {
+          remember(table);
+          out.writeByte(HASH_TABLE);
+          writeVarint(table.count());
+          for (var entries = table.entries(); entries instanceof Cons cons; entries = cons.cdr) {
+            var entry = (Cons) cons.car;
+            write(entry.car);
+            write(entry.cdr);
+          }
+        }
+        case NumericArray array -> {
+          remember(array);
+          out.writeByte(NUMERIC_ARRAY);
+          out.writeByte(array.kind.ordinal());
+          writeVarint(array.length);
+          for (int i = 0; i < array.length; i++) {
+            switch (array.kind) {
+              case INT -> out.writeInt((int) array.longAt(i));
+              case LONG -> out.writeLong(array.longAt(i));
+              case DOUBLE -> out.writeDouble(array.doubleAt(i));
+            }
+          }
+        }
+        case PersistentVector vec -> {
+          remember(vec);
+          out.writeByte(PERSISTENT_VECTOR);
+          writeVarint(vec.count);
+          for (int i = 0; i < vec.count; i++) {
+            write(vec.get(i));
+          }
+        }
+        case PersistentMap map -> {
+          remember(map);
+          out.writeByte(PERSISTENT_MAP);
+          writeVarint(map.count);
+          for (var entries = map.entries(); entries instanceof Cons cons; entries = cons.cdr) {
+            var entry = (Cons) cons.car;
+            write(entry.car);
+            write(entry.cdr);
+          }
+        }
+        default -> throw new Error(String.format("%s cannot be saved in an image", obj));
+      }
+    }
+
+    // writes a reference to the root's binding of `name` instead of `fn`, if that is `fn` and
+    // this is an Interpreter's environment
+    private boolean isShared(Symbol name, LispObject fn) throws IOException {
+      var root = Environment.getInitEnv();
+      if (global == root || !(root.retrieveGlobal(name) instanceof ApplicableExpression bound)) {
+        return false;
+      }
+      if (bound != fn && !(bound instanceof CompiledFunction compiled && compiled.function == fn)) {
+        return false;
+      }
+
+      out.writeByte(SHARED);
+      write(name);
+      return true;
+    }
+
+    private void writeLambda(LambdaExpression lambda) throws IOException {
+      var code = lambda.code();
+      var engine = code == null ? Engine.TREE : code instanceof Chunk ? Engine.VM : Engine.ANALYZER;
+      out.writeByte(engine.ordinal());
+      write(lambda.params);
+      write(Resolver.unresolve(lambda.body));
+      writeEnvironment(lambda.env);
+    }
+
+    private void writeEnvironment(Environment env) throws IOException {
+      if (env == global) {
+        out.writeByte(GLOBAL);
+        return;
+      }
+      if (env == Environment.getInitEnv()) {
+        out.writeByte(ROOT);
+        return;
+      }
+      if (env.scope() == null) {
+        throw new Error("a closure over another interpreter cannot be saved in an image");
+      }
+
+      var id = ids.get(env);
+      if (id != null) {
+        out.writeByte(REF);
+        writeVarint(id);
+        return;
+      }
+
+      remember(env);
+      out.writeByte(FRAME);
+      var names = env.scope().names;
+      writeVarint(names.length);
+      for (var name : names) {
+        write(name);
+      }
+      writeEnvironment(env.parent());
+      frames.add(env);
+    }
+
+    // seven bits at a time, low bits first, the high bit set on all but the last byte
+    private void writeVarint(int value) throws IOException {
+      while ((value & ~0x7f) != 0) {
+        out.writeByte(value & 0x7f | 0x80);
+        value >>>= 7;
+      }
+      out.writeByte(value);
+    }
+
+    // the slots of the frames written so far. They come after the object that led to the frames,
+    // so that a frame exists before anything in its slots - a closure, say, over that frame.
+    private void writeFrames() throws IOException {
+      while (!frames.isEmpty()) {
+        for (var value : frames.remove().slots()) {
+          write(value);
+        }
+      }
+    }
+  }
+
+  private static final class Decoder {
+    private final ByteBuffer in;
+    private final Environment global;
+    private final ArrayList<Object> objects = new ArrayList<>();
+    private final ArrayDeque<Environment> frames = new ArrayDeque<>();
+
+    Decoder(final ByteBuffer in, final Environment global) {
+      this.in = in;
+      this.global = global;
+    }
+
+    LispObject read() throws IOException {
+      Cons head = null;
+      Cons last = null;
+      byte tag;
+      while ((tag = in.get()) == CONS) {
+        var cons = new Cons(null, Util.nil);
+        objects.add(cons);
+        if (last == null) {
+          head = cons;
+        } else {
+          last.cdr = cons;
+        }
+        last = cons;
+        cons.car = read();
+      }
+
+      var obj = readAtom(tag);
+      if (last == null) {
+        return obj;
+      }
+      last.cdr = obj;
+      return head;
+    }
+
+    private LispObject readAtom(byte tag) throws IOException {
+      return switch (tag) {
+        case REF -> (LispObject) objects.get(readVarint());
+        case NIL -> Util.nil;
+        case T -> Util.t;
+        case UNBOUND -> null;
+        case INTEGER -> {
+          var zigzag = readVarint();
+          yield Integer.valueOf(zigzag >>> 1 ^ -(zigzag & 1));
+        }
+        case BIGNUM -> {
+          var bytes = new byte[readVarint()];
+          in.get(bytes);
+          yield new Bignum(new BigInteger(bytes));
+        }
+        case FLONUM -> new Flonum(in.getDouble());
+        case SYMBOL -> {
+          var name = new byte[readVarint()];
+          in.get(name);
+          var sym = SymbolTable.intern(new String(name, UTF_8));
+          objects.add(sym);
+          yield sym;
+        }
+        case BUILTIN -> {
+          var name = read();
+          if (Environment.builtins().get(name) instanceof BuiltinFunction fn) {
+            yield fn;
+          }
+          throw new IOException(String.format("no builtin %s", name));
+        }
+        case SHARED -> Environment.getInitEnv().retrieveGlobal((Symbol) read());
+        case FUNCTION -> {
+          var id = reserve();
+          var fn = new Function((Symbol) read(), readLambda());
+          objects.set(id, fn);
+          yield fn;
+        }
+        case MACRO -> {
+          var id = reserve();
+          var fn = new MacroFunction((Symbol) read(), readLambda());
+          objects.set(id, fn);
+          yield fn;
+        }
+        case LAMBDA -> {
+          var id = reserve();
+          var lambda = readLambda();
+          objects.set(id, lambda);
+          yield lambda;
+        }
+        case VECTOR -> {
+          var vec = new Vector(new LispObject[readVarint()]);
+          objects.add(vec);
+          for (int i = 0; i < vec.items.length; i++) {
+            vec.items[i] = read();
+          }
+          yield vec;
+        }
+        case HASH_TABLE -> {
+          var table = new HashTable();
+          objects.add(table);
+          for (int i = readVarint(); i > 0; i--) {
+            var key = read();
+            table.put(key, read());
+          }
+          yield table;
+        }
+        case NUMERIC_ARRAY -> {
+          var kind = NumericArray.Kind.values()[in.get()];
+          var array = NumericArray.of(kind, readVarint());
+          objects.add(array);
+          for (int i = 0; i < array.length; i++) {
+            var value =
+                switch (kind) {
+                  case INT -> Integer.valueOf(in.getInt());
+                  case LONG -> Numbers.fromLong(in.getLong());
+                  case DOUBLE -> new Flonum(in.getDouble());
+                };
+            array.set(i, value, "load-image");
+          }
+          yield array;
+        }
+        case PERSISTENT_VECTOR -> {
+          // written before its elements, but only built once they are read
+          var id = reserve();
+          var vec = PersistentVector.EMPTY;
+          for (int i = readVarint(); i > 0; i--) {
+            vec = vec.conj(read());
+          }
+          objects.set(id, vec);
+          yield vec;
+        }
+        case PERSISTENT_MAP -> {
+          var id = reserve();
+          var map = PersistentMap.EMPTY;
+          for (int i = readVarint(); i > 0; i--) {
+            var key = read();
+            map = map.assoc(key, read());
+          }
+          objects.set(id, map);
+          yield map;
+        }
+        default -> throw new IOException(String.format("unknown tag %d", tag));
+      };
+    }
+
+    private int reserve() {
+      objects.add(null);
+      return objects.size() - 1;
+    }
+
+    // rebuilt by evaluating `(lambda params body)` where it was closed over
+    private LambdaExpression readLambda() throws IOException {
+      var engine = Engine.values()[in.get()];
+      var params = read();
+      var body = read();
+      var env = readEnvironment();
+      var form = Util.makeCons(Util.lambda, Util.makeCons(params, Util.makeCons(body, Util.nil)));
+      return (LambdaExpression) engine.evaluate(env, form);
+    }
+
+    private Environment readEnvironment() throws IOException {
+      var tag = in.get();
+      switch (tag) {
+        case GLOBAL:
+          return global;
+        case ROOT:
+          return Environment.getInitEnv();
+        case REF:
+          return (Environment) objects.get(readVarint());
+        case FRAME:
+          var id = reserve();
+          var names = new Symbol[readVarint()];
+          for (int i = 0; i < names.length; i++) {
+            names[i] = (Symbol) read();
+          }
+          var parent = readEnvironment();
+          var scope = new Scope(names, parent.scope());
+          var frame = new Environment(parent, scope, new LispObject[names.length]);
+          objects.set(id, frame);
+          frames.add(frame);
+          return frame;
+        default:
+          throw new IOException(String.format("unknown environment tag %d", tag));
+      }
+    }
+
+    private int readVarint() {
+      var value = 0;
+      for (int shift = 0; ; shift += 7) {
+        var b = in.get();
+        value |= (b & 0x7f) << shift;
+        if (b >= 0) {
+          return value;
+        }
+      }
+    }
+
+    // see Encoder.writeFrames
+    void readFrames() throws IOException {
+      while (!frames.isEmpty()) {
+        var slots = frames.remove().slots();
+        for (int i = 0; i < slots.length; i++) {
+          slots[i] = read();
+        }
+      }
+    }
+  }
+}
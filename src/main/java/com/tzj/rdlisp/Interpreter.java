@@ -0,0 +1,80 @@
+package com.tzj.rdlisp;
+
+import java.io.IOException;
+
+// An isolated Lisp world - an Interpreter has a global environment of its own, so what one
+// defines no other sees. The root environment (Environment.getInitEnv()) is shared instead of
+// copied: its builtins, and whatever was loaded into it up front such as the standard library,
+// are visible to every Interpreter until it binds the same name itself. Creating one only
+// allocates an empty table of cells.
+//
+// Functions are closed over the global environment they were defined in, so those loaded into
+// the root keep calling the root's definitions, whatever an Interpreter redefines.
+public final class Interpreter {
+  // whether Lisp code may reach outside the interpreters - to the files of the process, with
+  // save-image and load-image, and to the profiler, which profiles every interpreter and prints
+  // to the process's output. Off for good in a process serving remote sessions.
+  private static volatile boolean hostAccess = true;
+
+  private final Environment global = Environment.isolate();
+  private final Engine engine;
+
+  public Interpreter() {
+    this(Engine.TREE);
+  }
+
+  public Interpreter(final Engine engine) {
+    this.engine = engine;
+  }
+
+  // evaluates each form in `src`, and returns the value of the last (nil if there is none)
+  public LispObject eval(String src) {
+    return eval(new Reader(new Lexer(src)));
+  }
+
+  public LispObject eval(LispObject form) {
+    return Environment.within(global, () -> engine.eval(global, form));
+  }
+
+  public Environment environment() {
+    return global;
+  }
+
+  // evaluates each form read from `in` in the root environment, sharing its definitions with
+  // every Interpreter - meant for loading the standard library once per process
+  public static void loadShared(java.io.Reader in, Engine engine) throws IOException {
+    try (in) {
+      var reader = new Reader(new Lexer(in));
+      while (reader.hasNext()) {
+        engine.eval(Environment.getInitEnv(), reader.next());
+      }
+    }
+  }
+
+  // denies Lisp code, from now on, what reaches outside the interpreters - see hostAccess
+  public static void denyHostAccess() {
+    hostAccess = false;
+  }
+
+  // throws unless Lisp code may reach outside the interpreters, for the builtin `name`
+  static void checkHostAccess(String name) {
+    if (!hostAccess) {
+      throw new Error(String.format("`%s` is not available to remote sessions", name));
+    }
+  }
+
+  // called on every Lisp function call, and on every iteration of a compiled loop
+  static void checkInterrupt() {
+    if (Thread.interrupted()) {
+      throw new Error("evaluation interrupted");
+    }
+  }
+
+  private LispObject eval(Reader reader) {
+    LispObject result = Util.nil;
+    while (reader.hasNext()) {
+      result = eval(reader.next());
+    }
+    return result;
+  }
+}
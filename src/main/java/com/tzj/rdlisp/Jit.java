@@ -0,0 +1,419 @@
+package com.tzj.rdlisp;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+// The second tier - compiles a DEFUN'd function that has been called often enough into a JVM
+// class of its own, and rebinds the function's name to the compiled version (a CompiledFunction).
+//
+// Constants, variables, `if` and calls are compiled to JVM bytecode. A call to another compiled
+// function is a direct virtual call on that function's body, so HotSpot can profile and inline
+// across Lisp calls. A self call in tail position becomes a jump back to the start of the body;
+// other tail calls are returned as TailCalls for the caller to make. Calls to macros are expanded
+// at compile time, guarded by the identity of the macro.
+//
+// Everything else (`lambda`, `def`, quasiquote, ...) is left to the Analyzer - such forms run
+// as Nodes, over an interpreter frame that then holds the function's parameters. Functions
+// taking more than MAX_ARITY or &rest parameters stay interpreted.
+final class Jit {
+  // calls to a function before it is compiled - set with the rdlisp.jit.threshold system
+  // property. A negative threshold turns the tier off.
+  static final int THRESHOLD = java.lang.Integer.getInteger("rdlisp.jit.threshold", 1000);
+
+  static final int MAX_ARITY = 3;
+
+  private static final String OBJECT = Code.OBJECT;
+  private static final String BODY = CompiledBody.NAME;
+  private static final String ENVIRONMENT = "com/tzj/rdlisp/Environment";
+  private static final String COMPILED_FUNCTION = "com/tzj/rdlisp/CompiledFunction";
+  private static final String MACRO_FUNCTION = "com/tzj/rdlisp/MacroFunction";
+  private static final String INTERPRETER = "com/tzj/rdlisp/Interpreter";
+  private static final String METRICS = "com/tzj/rdlisp/Metrics";
+  private static final String CONSTRUCTOR =
+      "([Ljava/lang/Object;L" + ENVIRONMENT + ";Lcom/tzj/rdlisp/Scope;)V";
+
+  private static final AtomicInteger classCount = new AtomicInteger();
+
+  // a form the tier cannot compile - the function stays interpreted
+  private static final class Unsupported extends RuntimeException {
+    Unsupported() {
+      super(null, null, false, false);
+    }
+  }
+
+  // compilation restarts with the parameters in an interpreter frame
+  private static final class NeedsFrame extends RuntimeException {
+    NeedsFrame() {
+      super(null, null, false, false);
+    }
+  }
+
+  private final Symbol name;
+  private final LambdaExpression lambda;
+  private final Scope scope;
+  private final Environment global;
+  private final int arity;
+  private final boolean framed;
+  private final List<Object> constants = new ArrayList<>();
+  private final Code.Label start = new Code.Label();
+  private Code code;
+  // the locals holding the parameter array and the frame over it, when `framed`
+  private int slots;
+  private int frame;
+
+  private Jit(final Function fn, final boolean framed) {
+    this.name = fn.name;
+    this.lambda = fn.lambda();
+    this.scope = lambda.scope();
+    this.global = lambda.env.global();
+    this.arity = scope.names.length;
+    this.framed = framed;
+  }
+
+  // synchronized, so that threads that find the same function hot compile it only once
+  static synchronized void compile(Function fn) {
+    // compiled calls would go unseen by the Profiler
+    if (Profiler.enabled) {
+      return;
+    }
+
+    var lambda = fn.lambda();
+    var global = lambda.env.global();
+    if (global.retrieveGlobal(fn.name) != fn
+        || lambda.paramCount() != lambda.scope().names.length
+        || lambda.paramCount() > MAX_ARITY) {
+      return;
+    }
+
+    try {
+      CompiledBody body;
+      try {
+        body = new Jit(fn, false).define();
+      } catch (NeedsFrame needsFrame) {
+        body = new Jit(fn, true).define();
+      }
+      global.rebindGlobal(fn.name, fn, new CompiledFunction(fn, body));
+    } catch (Unsupported | Error | IllegalStateException | ReflectiveOperationException err) {
+      // left to the interpreter
+    } catch (StackOverflowError | LinkageError err) {
+      // a body nested too deeply to walk, or a class the JVM rejects - left to the interpreter
+      // too, rather than failing the call that made the function hot
+    }
+  }
+
+  private CompiledBody define() throws ReflectiveOperationException {
+    var cw = new ClassWriter("com/tzj/rdlisp/Jit$" + classCount.incrementAndGet(), BODY);
+
+    var init = cw.method(0, "<init>", CONSTRUCTOR);
+    for (int i = 0; i <= 3; i++) {
+      init.aload(i);
+    }
+    init.invokespecial(BODY, "<init>", CONSTRUCTOR);
+    init.vreturn();
+
+    code = cw.method(0, "call" + arity, callDescriptor(arity));
+    code.mark(start);
+    code.invokestatic(METRICS, "call", "()V");
+    if (framed) {
+      slots = code.newLocal();
+      frame = code.newLocal();
+      newFrame(slots, frame);
+    }
+    compile(Resolver.unresolve(lambda.body), true);
+    code.areturn();
+
+    var cls = MethodHandles.lookup().defineHiddenClass(cw.toByteArray(), true).lookupClass();
+    return (CompiledBody)
+        cls.getDeclaredConstructor(Object[].class, Environment.class, Scope.class)
+            .newInstance(constants.toArray(), lambda.env, scope);
+  }
+
+  // leaves the value of `form` on the stack
+  private void compile(LispObject form, boolean tail) {
+    switch (form) {
+      case Nil nil -> emitConstant(nil);
+
+      case LispNumber num -> emitConstant(num);
+
+      case SelfEvaluating value -> emitConstant(form);
+
+      case Symbol sym -> variable(sym);
+
+      case Cons cons -> {
+        if (cons.car instanceof Symbol op && Resolver.address(op, scope) instanceof GlobalRef) {
+          if (op.special == null) {
+            if (global.retrieveGlobal(op) instanceof MacroFunction macroFn) {
+              macroCall(op, macroFn, cons, tail);
+            } else {
+              call(cons, tail);
+            }
+            return;
+          }
+
+          switch (op.special) {
+            case QUOTE -> {
+              if (Util.consLength(cons.cdr) != 1) {
+                throw new Unsupported();
+              }
+              emitConstant(Util.car(cons.cdr));
+            }
+
+            case IF -> branch(cons, tail);
+
+            default -> {
+              if (!framed) {
+                throw new NeedsFrame();
+              }
+              interpret(cons, tail, frame);
+            }
+          }
+          return;
+        }
+
+        call(cons, tail);
+      }
+
+      default -> throw new Unsupported();
+    }
+  }
+
+  private void emitConstant(LispObject obj) {
+    code.aload(0);
+    code.push(constant(obj));
+    code.invokevirtual(BODY, "constant", "(I)L" + OBJECT + ";");
+  }
+
+  private void variable(Symbol sym) {
+    var address = Resolver.address(sym, scope);
+    if (address instanceof LocalRef ref) {
+      if (ref.depth == 0) {
+        param(ref.slot);
+      } else {
+        code.aload(0);
+        code.push(ref.depth - 1);
+        code.push(ref.slot);
+        code.invokevirtual(BODY, "outer", "(II)L" + OBJECT + ";");
+      }
+    } else {
+      code.aload(0);
+      code.push(constant(address));
+      code.invokevirtual(BODY, "global", "(I)L" + OBJECT + ";");
+    }
+  }
+
+  private void param(int slot) {
+    if (framed) {
+      code.aload(slots);
+      code.push(slot);
+      code.aaload();
+    } else {
+      code.aload(slot + 1);
+    }
+  }
+
+  private void branch(Cons form, boolean tail) {
+    var argsLen = Util.consLength(form.cdr);
+    if (argsLen != 2 && argsLen != 3) {
+      throw new Unsupported();
+    }
+
+    var otherwise = new Code.Label();
+    var end = new Code.Label();
+
+    compile(Util.car(form.cdr), false);
+    code.invokevirtual(OBJECT, "isTrue", "()Z");
+    code.ifeq(otherwise);
+    var depth = code.depth();
+
+    compile(Util.car(Util.cdr(form.cdr)), tail);
+    code.goTo(end);
+
+    code.mark(otherwise);
+    code.setDepth(depth);
+    if (argsLen == 2) {
+      emitConstant(Util.nil);
+    } else {
+      compile(Util.car(Util.cdr(Util.cdr(form.cdr))), tail);
+    }
+    code.mark(end);
+  }
+
+  private void call(Cons form, boolean tail) {
+    var site = constant(form);
+    var end = new Code.Label();
+
+    compile(form.car, false);
+    var fn = code.newLocal();
+    code.astore(fn);
+
+    // became a macro after this function was compiled
+    var notMacro = new Code.Label();
+    code.aload(fn);
+    code.instanceOf(MACRO_FUNCTION);
+    code.ifeq(notMacro);
+    var depth = code.depth();
+    withFrame(frame -> interpret(form, tail, frame));
+    code.goTo(end);
+    code.mark(notMacro);
+    code.setDepth(depth);
+
+    var args = new ArrayList<java.lang.Integer>();
+    for (var arg = form.cdr; !arg.isNil(); arg = Util.cdr(arg)) {
+      compile(Util.car(arg), false);
+      var local = code.newLocal();
+      code.astore(local);
+      args.add(local);
+    }
+
+    if (tail
+        && form.car == name
+        && Resolver.address(name, scope) instanceof GlobalRef
+        && args.size() == arity) {
+      // a self call - rebind the parameters and start over, if `name` is still this function
+      var other = new Code.Label();
+      code.aload(fn);
+      code.aload(0);
+      code.getfield(BODY, "self", "L" + COMPILED_FUNCTION + ";");
+      code.ifAcmpne(other);
+      for (int i = 0; i < arity; i++) {
+        code.aload(args.get(i));
+        code.astore(i + 1);
+      }
+      code.invokestatic(INTERPRETER, "checkInterrupt", "()V");
+      code.goTo(start);
+      code.mark(other);
+      code.setDepth(depth);
+    }
+
+    if (!tail && args.size() <= MAX_ARITY) {
+      var interpreted = new Code.Label();
+      code.aload(fn);
+      code.instanceOf(COMPILED_FUNCTION);
+      code.ifeq(interpreted);
+      code.aload(fn);
+      code.checkcast(COMPILED_FUNCTION);
+      code.getfield(COMPILED_FUNCTION, "body", "L" + BODY + ";");
+      for (var arg : args) {
+        code.aload(arg);
+      }
+      code.invokevirtual(BODY, "call" + args.size(), callDescriptor(args.size()));
+      code.invokestatic(BODY, "resolve", "(L" + OBJECT + ";)L" + OBJECT + ";");
+      code.goTo(end);
+      code.mark(interpreted);
+      code.setDepth(depth);
+    }
+
+    code.aload(0);
+    code.aload(fn);
+    code.push(site);
+    if (!tail && args.size() <= MAX_ARITY) {
+      var desc = new StringBuilder("(L" + OBJECT + ";I");
+      for (var arg : args) {
+        code.aload(arg);
+        desc.append("L" + OBJECT + ";");
+      }
+      code.invokevirtual(BODY, "call", desc + ")L" + OBJECT + ";");
+      code.mark(end);
+      return;
+    }
+
+    code.push(args.size());
+    code.anewarray(OBJECT);
+    for (int i = 0; i < args.size(); i++) {
+      code.dup();
+      code.push(i);
+      code.aload(args.get(i));
+      code.aastore();
+    }
+    code.invokevirtual(
+        BODY, tail ? "tailCall" : "call", "(L" + OBJECT + ";I[L" + OBJECT + ";)L" + OBJECT + ";");
+    code.mark(end);
+  }
+
+  // the expansion is compiled in place of the call, for as long as `op` is still `macroFn`
+  private void macroCall(Symbol op, MacroFunction macroFn, Cons form, boolean tail) {
+    var expansion = macroFn.apply(form.cdr);
+    var redefined = new Code.Label();
+    var end = new Code.Label();
+
+    code.aload(0);
+    code.push(constant(new GlobalRef(op)));
+    code.invokevirtual(BODY, "globalOrNull", "(I)L" + OBJECT + ";");
+    code.aload(0);
+    code.push(constant(macroFn));
+    code.invokevirtual(BODY, "constant", "(I)L" + OBJECT + ";");
+    code.ifAcmpne(redefined);
+    var depth = code.depth();
+
+    compile(expansion, tail);
+    code.goTo(end);
+
+    code.mark(redefined);
+    code.setDepth(depth);
+    withFrame(frame -> interpret(form, tail, frame));
+    code.mark(end);
+  }
+
+  // runs `form` with the Analyzer, in the frame in local `frame`
+  private void interpret(Cons form, boolean tail, int frame) {
+    code.aload(0);
+    code.push(constant(Analyzer.analyze(form, scope, global, tail)));
+    code.aload(frame);
+    code.invokevirtual(BODY, "interpret", "(IL" + ENVIRONMENT + ";)L" + OBJECT + ";");
+  }
+
+  // makes an interpreter frame available to `body`. Without one for the whole function, one is
+  // made on the spot, and whatever the interpreted code did to the parameters copied back.
+  private void withFrame(IntConsumer body) {
+    if (framed) {
+      body.accept(frame);
+      return;
+    }
+
+    var params = code.newLocal();
+    var env = code.newLocal();
+    newFrame(params, env);
+    body.accept(env);
+    for (int i = 0; i < arity; i++) {
+      code.aload(params);
+      code.push(i);
+      code.aaload();
+      code.astore(i + 1);
+    }
+  }
+
+  // the parameters into a new array in local `params`, and a frame over it in local `env`
+  private void newFrame(int params, int env) {
+    code.push(arity);
+    code.anewarray(OBJECT);
+    for (int i = 0; i < arity; i++) {
+      code.dup();
+      code.push(i);
+      code.aload(i + 1);
+      code.aastore();
+    }
+    code.astore(params);
+
+    code.aload(0);
+    code.aload(params);
+    code.invokevirtual(BODY, "frame", "([L" + OBJECT + ";)L" + ENVIRONMENT + ";");
+    code.astore(env);
+  }
+
+  private int constant(Object obj) {
+    for (int i = 0; i < constants.size(); i++) {
+      if (constants.get(i) == obj) {
+        return i;
+      }
+    }
+    constants.add(obj);
+    return constants.size() - 1;
+  }
+
+  private static String callDescriptor(int arity) {
+    return "(" + ("L" + OBJECT + ";").repeat(arity) + ")L" + OBJECT + ";";
+  }
+}
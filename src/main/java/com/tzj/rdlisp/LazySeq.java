@@ -0,0 +1,198 @@
+package com.tzj.rdlisp;
+
+import java.util.function.Supplier;
+
+// A sequence computed on demand - a thunk that, when first forced, yields nil or a Cons whose cdr
+// is the rest of the sequence: a list, or another LazySeq. The result is kept, so each element is
+// computed once however often the sequence is walked, and by one thread however many walk it.
+//
+// lazy-map, lazy-filter, take, drop, iterate and range build on each other one element at a
+// time, so a pipeline of them holds no intermediate lists, stops as soon as its consumer does,
+// and works over infinite sequences. into-list forces one into a list. Each of them takes a list
+// wherever it takes a sequence.
+final class LazySeq extends LispObject implements SelfEvaluating {
+  // how many realized elements toString shows
+  private static final int PRINTED = 16;
+
+  // null once forced, which publishes `value`
+  private volatile Supplier<LispObject> thunk;
+  private LispObject value;
+
+  LazySeq(final Supplier<LispObject> thunk) {
+    this.thunk = thunk;
+  }
+
+  // nil, or a Cons of the first element and the rest. A thunk that throws is tried again by the
+  // next force - as one does when the evaluation is interrupted, which is checked for before each
+  // element is computed.
+  LispObject force() {
+    if (thunk == null) {
+      return value;
+    }
+    synchronized (this) {
+      var thunk = this.thunk;
+      if (thunk != null) {
+        Interpreter.checkInterrupt();
+        var value = thunk.get();
+        if (value instanceof LazySeq lazy) {
+          value = lazy.force();
+        }
+        if (!value.isNil() && !(value instanceof Cons)) {
+          throw new Error(String.format("a lazy sequence produced %s, which is not a list", value));
+        }
+        this.value = value;
+        this.thunk = null;
+      }
+      return value;
+    }
+  }
+
+  // `seq` forced as far as its first element - nil, or a Cons
+  static LispObject force(LispObject seq, String name) {
+    var value = seq instanceof LazySeq lazy ? lazy.force() : seq;
+    if (value.isNil() || value instanceof Cons) {
+      return value;
+    }
+    throw new Error(String.format("%s passed to `%s` is not a list or lazy sequence", seq, name));
+  }
+
+  /// sequences built on others
+
+  static LazySeq map(ApplicableExpression fn, LispObject seq) {
+    return new LazySeq(
+        () -> {
+          if (force(seq, "lazy-map") instanceof Cons cons) {
+            return new Cons(fn.apply1(cons.car), map(fn, cons.cdr));
+          }
+          return Util.nil;
+        });
+  }
+
+  static LazySeq filter(ApplicableExpression pred, LispObject seq) {
+    return new LazySeq(
+        new Walk(seq) {
+          @Override
+          public LispObject get() {
+            // a loop rather than a LazySeq per element skipped, so long runs of them take no stack
+            for (var rest = force(at, "lazy-filter");
+                rest instanceof Cons cons;
+                rest = force(at, "lazy-filter")) {
+              Interpreter.checkInterrupt();
+              if (pred.apply1(cons.car).isTrue()) {
+                return new Cons(cons.car, filter(pred, cons.cdr));
+              }
+              at = cons.cdr;
+            }
+            return Util.nil;
+          }
+        });
+  }
+
+  static LazySeq take(long n, LispObject seq) {
+    return new LazySeq(
+        () -> {
+          // checked first, so that taking the last element forces no more of `seq`
+          if (n > 0 && force(seq, "take") instanceof Cons cons) {
+            return new Cons(cons.car, take(n - 1, cons.cdr));
+          }
+          return Util.nil;
+        });
+  }
+
+  static LazySeq drop(long n, LispObject seq) {
+    return new LazySeq(
+        new Walk(seq) {
+          private long left = n;
+
+          @Override
+          public LispObject get() {
+            var rest = force(at, "drop");
+            while (left > 0 && rest instanceof Cons cons) {
+              Interpreter.checkInterrupt();
+              at = cons.cdr;
+              left--;
+              rest = force(at, "drop");
+            }
+            return rest;
+          }
+        });
+  }
+
+  // x, (fn x), (fn (fn x)) ... - each applied only when its element is forced
+  static LazySeq iterate(ApplicableExpression fn, LispObject x) {
+    return new LazySeq(() -> new Cons(x, successors(fn, x)));
+  }
+
+  private static LazySeq successors(ApplicableExpression fn, LispObject x) {
+    return new LazySeq(
+        () -> {
+          var next = fn.apply1(x);
+          return new Cons(next, successors(fn, next));
+        });
+  }
+
+  // from `start` by `step` up to, but not including, `end` - or without end if that is null
+  static LazySeq range(LispNumber start, LispNumber end, LispNumber step) {
+    var ascending = Numbers.compare(step, Integer.valueOf(0)) > 0;
+    return new LazySeq(
+        () -> {
+          if (end != null) {
+            var cmp = Numbers.compare(start, end);
+            if (ascending ? cmp >= 0 : cmp <= 0) {
+              return Util.nil;
+            }
+          }
+          return new Cons(start, range(Numbers.add(start, step), end, step));
+        });
+  }
+
+  // a thunk that walks along a sequence, keeping only where it has got to - so that the elements
+  // it has passed can be collected while it goes on, and a thunk that throws carries on from there
+  // when forced again
+  private abstract static class Walk implements Supplier<LispObject> {
+    LispObject at;
+
+    Walk(final LispObject at) {
+      this.at = at;
+    }
+  }
+
+  // all of `seq`, forced
+  static LispObject toList(LispObject seq, String name) {
+    var lst = new ListBuilder();
+    for (var rest = force(seq, name); rest instanceof Cons cons; rest = force(cons.cdr, name)) {
+      Interpreter.checkInterrupt();
+      lst.add(cons.car);
+    }
+    return lst.build();
+  }
+
+  // the elements forced so far, without forcing any more
+  @Override
+  public String toString() {
+    var sb = new StringBuilder("<lazy-seq>:<");
+    LispObject rest = this;
+    for (int i = 0; ; i++) {
+      if (rest instanceof LazySeq lazy) {
+        if (lazy.thunk != null) {
+          sb.append(i > 0 ? " ..." : "...");
+          break;
+        }
+        rest = lazy.value;
+      }
+      if (!(rest instanceof Cons cons)) {
+        break;
+      }
+      if (i == PRINTED) {
+        sb.append(" ...");
+        break;
+      }
+      if (i > 0) {
+        sb.append(' ');
+      }
+      sb.append(cons.car);
+      rest = cons.cdr;
+    }
+    return sb.append('>').toString();
+  }
+}
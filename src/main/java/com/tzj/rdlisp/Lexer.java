@@ -1,25 +1,63 @@
 package com.tzj.rdlisp;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
 
+// Scans tokens on demand from a character stream, holding only a small window of the input
+// in memory, so arbitrarily large sources can be read form by form.
 public class Lexer {
-  private String src;
+  private static final int BUFFER_SIZE = 8192;
+
+  private final java.io.Reader in;
+  private final char[] buf;
   private int currPos;
-  private List<Token> tokens;
-  private int currIdx;
+  private int limit;
+  private boolean atEof;
   private StringBuffer currBuf;
 
   public Lexer(final String src) {
-    this.src = src + '\u0000';
-    this.tokens = new ArrayList<>();
+    this(new StringReader(src));
+  }
+
+  public Lexer(final java.io.Reader in) {
+    this.in = in;
+    this.buf = new char[BUFFER_SIZE];
     this.currPos = 0;
-    this.currIdx = 0;
-    scanAll();
+    this.limit = 0;
+    this.atEof = false;
+  }
+
+  // makes at least `n` characters from currPos on available in `buf`, unless the input ends
+  private boolean fill(int n) {
+    if (currPos + n <= limit) {
+      return true;
+    }
+
+    if (currPos > 0) {
+      System.arraycopy(buf, currPos, buf, 0, limit - currPos);
+      limit -= currPos;
+      currPos = 0;
+    }
+
+    try {
+      while (!atEof && limit < n) {
+        var read = in.read(buf, limit, buf.length - limit);
+        if (read < 0) {
+          atEof = true;
+        } else {
+          limit += read;
+        }
+      }
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+
+    return limit >= n;
   }
 
   private char currChar() {
-    return src.charAt(currPos);
+    return peekChar(0);
   }
 
   private void skipWhitespace() {
@@ -43,11 +81,11 @@ public class Lexer {
   }
 
   private void skipIt() {
-    currPos++;
-
-    if (currPos >= src.length()) {
+    if (!fill(1)) {
       throw new Error("skipped past the end of the input");
     }
+
+    currPos++;
   }
 
   private void eatIt() {
@@ -55,6 +93,43 @@ public class Lexer {
     currPos++;
   }
 
+  // the character `n` places after the current one, or \u0000 past the end of the input
+  private char peekChar(int n) {
+    return fill(n + 1) ? buf[currPos + n] : '\u0000';
+  }
+
+  // digits, then an optional fraction and exponent - either of which makes it a float
+  private TokenType scanNumber() {
+    var kind = TokenType.Integer;
+
+    while (Character.isDigit(currChar())) {
+      eatIt();
+    }
+
+    if (currChar() == '.' && Character.isDigit(peekChar(1))) {
+      kind = TokenType.Float;
+      eatIt();
+      while (Character.isDigit(currChar())) {
+        eatIt();
+      }
+    }
+
+    if (currChar() == 'e' || currChar() == 'E') {
+      var next = peekChar(1);
+      if (Character.isDigit(next)
+          || (next == '+' || next == '-') && Character.isDigit(peekChar(2))) {
+        kind = TokenType.Float;
+        eatIt();
+        eatIt();
+        while (Character.isDigit(currChar())) {
+          eatIt();
+        }
+      }
+    }
+
+    return kind;
+  }
+
   private TokenType scanToken() {
     return switch (currChar()) {
       case '(' -> {
@@ -113,10 +188,7 @@ public class Lexer {
       case '+' -> {
         eatIt();
         if (Character.isDigit(currChar())) {
-          while (Character.isDigit(currChar())) {
-            eatIt();
-          }
-          yield TokenType.Integer;
+          yield scanNumber();
         }
         yield TokenType.Symbol;
       }
@@ -124,10 +196,7 @@ public class Lexer {
       case '-' -> {
         eatIt();
         if (Character.isDigit(currChar())) {
-          while (Character.isDigit(currChar())) {
-            eatIt();
-          }
-          yield TokenType.Integer;
+          yield scanNumber();
         }
         yield TokenType.Symbol;
       }
@@ -147,13 +216,25 @@ public class Lexer {
         yield TokenType.Symbol;
       }
 
-      case '0', '1', '2', '3', '4', '5', '6', '7', '8', '9' -> {
+      case '0', '1', '2', '3', '4', '5', '6', '7', '8', '9' -> scanNumber();
+
+      // `#(` opens a vector, `#hash(` a hash table
+      case '#' -> {
         eatIt();
-        while (Character.isDigit(currChar())) {
+        while (Character.isLetter(currChar())) {
           eatIt();
         }
-
-        yield TokenType.Integer;
+        if (currChar() == '(') {
+          var prefix = currBuf.toString();
+          eatIt();
+          if (prefix.equals("#")) {
+            yield TokenType.VectorOpen;
+          }
+          if (prefix.equalsIgnoreCase("#hash")) {
+            yield TokenType.HashOpen;
+          }
+        }
+        throw new Error(String.format("invalid syntax %s", currBuf.toString()));
       }
 
       case 'a',
@@ -227,27 +308,13 @@ public class Lexer {
     };
   }
 
-  private void scanAll() {
-    while (true) {
-      while (currChar() == ';' || Character.isWhitespace(currChar())) {
-        skipWhitespace();
-      }
-
-      currBuf = new StringBuffer();
-      var currKind = scanToken();
-      tokens.add(new Token(currKind, currBuf.toString()));
-
-      if (currKind == TokenType.Eof) {
-        break;
-      }
-    }
-  }
-
   public Token nextToken() {
-    if (currIdx >= tokens.size()) {
-      throw new Error("[Lexer] idx out of range");
+    while (currChar() == ';' || Character.isWhitespace(currChar())) {
+      skipWhitespace();
     }
 
-    return tokens.get(currIdx++);
+    currBuf = new StringBuffer();
+    var currKind = scanToken();
+    return new Token(currKind, currBuf.toString());
   }
 }
@@ -1,9 +1,31 @@
 package com.tzj.rdlisp;
 
-import java.util.Objects;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
 
 abstract sealed class LispObject
-    permits Nil, True, Integer, Symbol, Cons, Eof, ApplicableExpression {
+    permits Nil,
+        True,
+        LispNumber,
+        Symbol,
+        Cons,
+        Vector,
+        HashTable,
+        NumericArray,
+        PersistentVector,
+        PersistentMap,
+        LazySeq,
+        Eof,
+        ApplicableExpression,
+        LocalRef,
+        GlobalRef,
+        LambdaTemplate,
+        MacroCallSite,
+        TailCall {
   protected boolean isNil() {
     return false;
   }
@@ -18,8 +40,44 @@ abstract sealed class LispObject
 }
 
 abstract sealed class ApplicableExpression extends LispObject
-    permits LambdaExpression, BuiltinFunction, MacroFunction, Function {
+    permits LambdaExpression, BuiltinFunction, MacroFunction, Function, CompiledFunction {
+  static final LispObject[] NO_ARGS = new LispObject[0];
+
+  // the arguments as a list - the convention of `apply` and macros
   public abstract LispObject apply(LispObject args);
+
+  // the arguments as an array, which the callee may keep - callers pass one of their own. This
+  // is how evaluated calls pass their arguments, through `apply0` to `apply3` when they are few.
+  public LispObject applyN(LispObject[] args) {
+    return apply(Util.toList(args));
+  }
+
+  public LispObject apply0() {
+    return applyN(NO_ARGS);
+  }
+
+  public LispObject apply1(LispObject a) {
+    return applyN(new LispObject[] {a});
+  }
+
+  public LispObject apply2(LispObject a, LispObject b) {
+    return applyN(new LispObject[] {a, b});
+  }
+
+  public LispObject apply3(LispObject a, LispObject b, LispObject c) {
+    return applyN(new LispObject[] {a, b, c});
+  }
+
+  // the closure behind this function, if it has one - lets tail calls bypass `apply`
+  public LambdaExpression lambda() {
+    return null;
+  }
+
+  // whether a call of this in tail position is left to the caller's trampoline, as a TailCall -
+  // true of closures, interpreted or compiled, which may make tail calls of their own
+  boolean isTailCallable() {
+    return lambda() != null;
+  }
 }
 
 // the basis of all applicable expressions
@@ -27,68 +85,176 @@ final class LambdaExpression extends ApplicableExpression {
   public Environment env;
   public LispObject params;
   public LispObject body;
+  private final Scope scope;
+  private final int paramCount;
+  private final boolean varargs;
+  // set when the body was compiled by the Analyzer (or, as a Chunk, by the Compiler) rather than
+  // resolved for the Evaluator
+  private final Node code;
+  // the DEFUN'd function this is the body of, if any, and how often it has been called - see Jit.
+  // The count is not synchronized - a count lost to concurrent calls can at worst leave the
+  // function interpreted.
+  Function owner;
+  private int calls;
 
   public LambdaExpression(final Environment env, final LispObject params, final LispObject body) {
     this.env = env;
     this.params = params;
+    this.scope = Resolver.lambdaScope(params, body, env.scope());
+    this.body = Resolver.resolve(body, scope, env.global());
+    this.paramCount = scope.params - (Resolver.hasVararg(params) ? 1 : 0);
+    this.varargs = paramCount != scope.params;
+    this.code = null;
+  }
+
+  public LambdaExpression(final Environment env, final LambdaTemplate template) {
+    this.env = env;
+    this.params = template.params;
+    this.scope = template.scope;
+    this.body = template.body;
+    this.paramCount = template.paramCount;
+    this.varargs = paramCount != scope.params;
+    this.code = null;
+  }
+
+  public LambdaExpression(
+      final Environment env,
+      final LispObject params,
+      final LispObject body,
+      final Scope scope,
+      final int paramCount,
+      final Node code) {
+    this.env = env;
+    this.params = params;
     this.body = body;
+    this.scope = scope;
+    this.paramCount = paramCount;
+    this.varargs = paramCount != scope.params;
+    this.code = code;
   }
 
   @Override
   public LispObject apply(LispObject args) {
-    // spawn a new environment ("frame") for this closure's execution.
-    var env = this.env.clone();
-    var paramCount = 0;
-
-    var paramPtr = params;
-    boolean varargs = false;
-    while (!paramPtr.equals(Util.nil)) {
-      var param = Util.car(paramPtr);
-      if (param.isCons()) {
-        varargs = true;
-      } else {
-        paramCount++;
+    return applyN(Util.toArray(args));
+  }
+
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (Metrics.enabled) {
+      Metrics.enter();
+      try {
+        return Profiler.enabled ? profiledApplyN(args) : execute(args);
+      } finally {
+        Metrics.exit();
+      }
+    }
+    return Profiler.enabled ? profiledApplyN(args) : execute(args);
+  }
+
+  // trampoline - tail calls in the body, and in those it tail calls, come back here instead of
+  // nesting
+  private LispObject execute(LispObject[] args) {
+    return TailCall.resolve(step(args));
+  }
+
+  // the body run once on `args` - a call it makes in tail position may be returned as a TailCall
+  LispObject step(LispObject[] args) {
+    return code == null ? Evaluator.evalBody(bind(args), body) : code.execute(bind(args));
+  }
+
+  // as applyN, keeping the Profiler's stack - tail calls replace this call on it
+  private LispObject profiledApplyN(LispObject[] args) {
+    var mark = Profiler.mark();
+    Profiler.call(this, mark);
+    try {
+      if (code == null) {
+        return Evaluator.eval(bind(args), body, mark);
+      }
+
+      var result =
+          code instanceof Chunk chunk ? VM.run(chunk, bind(args), mark) : code.execute(bind(args));
+      while (result instanceof TailCall call) {
+        if (call.fn.isTailCallable()) {
+          Profiler.call(call.fn, mark);
+          result = call.step();
+        } else {
+          Profiler.unwind(mark);
+          result = call.fn.applyN(call.args);
+        }
+      }
+      return result;
+    } finally {
+      Profiler.unwind(mark);
+    }
+  }
+
+  @Override
+  public LambdaExpression lambda() {
+    return this;
+  }
+
+  void resetCalls() {
+    calls = 0;
+  }
+
+  public boolean isTreeWalked() {
+    return code == null;
+  }
+
+  Node code() {
+    return code;
+  }
+
+  Scope scope() {
+    return scope;
+  }
+
+  int paramCount() {
+    return paramCount;
+  }
+
+  // spawn a new frame for this closure's execution. Without &rest parameters or locals, `args`
+  // becomes the frame's slots.
+  public Environment bind(LispObject[] args) {
+    if (args.length == paramCount && paramCount == scope.names.length) {
+      Interpreter.checkInterrupt();
+      Metrics.call();
+      if (owner != null && calls++ == Jit.THRESHOLD) {
+        Jit.compile(owner);
       }
-      paramPtr = Util.cdr(paramPtr);
+      return new Environment(env, scope, args);
     }
 
-    var argCount = 0;
-    var argPtr = args;
-    while (!argPtr.equals(Util.nil)) {
-      argCount++;
-      argPtr = Util.cdr(argPtr);
+    return bind(args, 0, args.length);
+  }
+
+  // as above, for the `count` arguments in `args` from `from` on
+  public Environment bind(LispObject[] args, int from, int count) {
+    Interpreter.checkInterrupt();
+    Metrics.call();
+    if (owner != null && calls++ == Jit.THRESHOLD) {
+      Jit.compile(owner);
     }
 
-    if (paramCount > argCount || argCount > paramCount && !varargs) {
+    if (count < paramCount || count > paramCount && !varargs) {
       throw new Error(
           String.format(
               "incorrect number of arguments in lambda - expected %d, but got %d",
-              paramCount, argCount));
+              paramCount, count));
     }
 
-    // bindIngs for all the params
-    var runParams = Util.copyList(params);
-    var runArgs = Util.copyList(args);
-
-    while (!runParams.equals(Util.nil)) {
-      // handle varargs - only &rest for now
-      if (Util.car(runParams).isCons()) {
-        runParams = Util.car(runParams);
+    var slots = new LispObject[scope.names.length];
+    System.arraycopy(args, from, slots, 0, paramCount);
 
-        var varargParam = (Symbol) Util.cdr(runParams);
-        env.addSymbol(varargParam.sym);
-        env.bindSymbol(env.retrieveSymbol(varargParam.sym), runArgs);
-        break;
+    if (varargs) {
+      var rest = new ListBuilder();
+      for (int i = from + paramCount; i < from + count; i++) {
+        rest.add(args[i]);
       }
-      var param = (Symbol) Util.car(runParams);
-      env.addSymbol(param.sym);
-      env.bindSymbol(env.retrieveSymbol(param.sym), Util.car(runArgs));
-
-      runParams = Util.cdr(runParams);
-      runArgs = Util.cdr(runArgs);
+      slots[paramCount] = rest.build();
     }
 
-    return Evaluator.eval(env, body);
+    return new Environment(env, scope, slots);
   }
 
   @Override
@@ -99,6 +265,9 @@ final class LambdaExpression extends ApplicableExpression {
 
 /// Built-in functions
 
+// Builtins take their arguments as an array - `applyN` is the one method each must implement.
+// Those of fixed arity also override the `apply` method for it, and the arithmetic ones `apply2`,
+// so that the common calls pass their arguments without an array.
 abstract sealed class BuiltinFunction extends ApplicableExpression
     permits ConsFunction,
         CarFunction,
@@ -113,19 +282,90 @@ abstract sealed class BuiltinFunction extends ApplicableExpression
         PairCheckFunction,
         NullCheckFunction,
         NumberCheckFunction,
-        SymbolCheckFunction {}
+        SymbolCheckFunction,
+        MacroExpand1Function,
+        MacroExpandFunction,
+        MapFunction,
+        FilterFunction,
+        ReverseFunction,
+        AppendFunction,
+        ListStarFunction,
+        LengthFunction,
+        NthFunction,
+        AssocFunction,
+        MemberFunction,
+        PMapFunction,
+        PFilterFunction,
+        PReduceFunction,
+        SaveImageFunction,
+        LoadImageFunction,
+        ProfileStartFunction,
+        ProfileReportFunction,
+        MakeVectorFunction,
+        VectorRefFunction,
+        VectorSetFunction,
+        VectorLengthFunction,
+        MakeHashTableFunction,
+        HashRefFunction,
+        HashSetFunction,
+        HashRemoveFunction,
+        HashCountFunction,
+        ArrayFunction,
+        ArrayRefFunction,
+        ArraySetFunction,
+        ArrayLengthFunction,
+        ArrayToListFunction,
+        ArraySumFunction,
+        ArrayDotFunction,
+        ArrayMapFunction,
+        ArraySortFunction,
+        ArraySliceFunction,
+        PVectorFunction,
+        PVectorRefFunction,
+        PVectorConjFunction,
+        PVectorAssocFunction,
+        PVectorPopFunction,
+        PVectorLengthFunction,
+        PVectorToListFunction,
+        ListToPVectorFunction,
+        PHashFunction,
+        PHashRefFunction,
+        PHashAssocFunction,
+        PHashDissocFunction,
+        PHashCountFunction,
+        PHashToListFunction,
+        LazySeqFunction,
+        LazyMapFunction,
+        LazyFilterFunction,
+        TakeFunction,
+        DropFunction,
+        IterateFunction,
+        RangeFunction,
+        IntoListFunction {
+  @Override
+  public final LispObject apply(LispObject args) {
+    return applyN(Util.toArray(args));
+  }
 
-final class ConsFunction extends BuiltinFunction {
   @Override
-  public LispObject apply(LispObject args) {
-    var argsLen = Util.consLength(args);
+  public abstract LispObject applyN(LispObject[] args);
+}
 
-    if (argsLen != 2) {
+final class ConsFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 2) {
       throw new Error(
-          String.format("invalid number of arguments for `cons` - expected 2, got %d", argsLen));
+          String.format(
+              "invalid number of arguments for `cons` - expected 2, got %d", args.length));
     }
 
-    return Util.makeCons(Util.car(args), Util.car(Util.cdr(args)));
+    return apply2(args[0], args[1]);
+  }
+
+  @Override
+  public LispObject apply2(LispObject car, LispObject cdr) {
+    return Util.makeCons(car, cdr);
   }
 
   @Override
@@ -136,21 +376,25 @@ final class ConsFunction extends BuiltinFunction {
 
 final class CarFunction extends BuiltinFunction {
   @Override
-  public LispObject apply(LispObject args) {
-    var argsLen = Util.consLength(args);
-    args = Util.car(args);
-
-    if (argsLen != 1) {
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 1) {
       throw new Error(
-          String.format("invalid number of arguments for `car` - expected 1, got %d", argsLen));
+          String.format(
+              "invalid number of arguments for `car` - expected 1, got %d", args.length));
     }
 
-    if (args.equals(Util.nil)) {
+    return apply1(args[0]);
+  }
+
+  @Override
+  public LispObject apply1(LispObject arg) {
+    var value = arg instanceof LazySeq lazy ? lazy.force() : arg;
+    if (value.equals(Util.nil)) {
       return Util.nil;
-    } else if (args instanceof Cons cons) {
+    } else if (value instanceof Cons cons) {
       return cons.car;
     } else {
-      throw new Error(String.format("Cannot take the car of %s - not a cons cell", args));
+      throw new Error(String.format("Cannot take the car of %s - not a cons cell", arg));
     }
   }
 
@@ -162,21 +406,25 @@ final class CarFunction extends BuiltinFunction {
 
 final class CdrFunction extends BuiltinFunction {
   @Override
-  public LispObject apply(LispObject args) {
-    var argsLen = Util.consLength(args);
-    args = Util.car(args);
-
-    if (argsLen != 1) {
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 1) {
       throw new Error(
-          String.format("invalid number of arguments for `cdr` - expected 1, got %d", argsLen));
+          String.format(
+              "invalid number of arguments for `cdr` - expected 1, got %d", args.length));
     }
 
-    if (args.equals(Util.nil)) {
+    return apply1(args[0]);
+  }
+
+  @Override
+  public LispObject apply1(LispObject arg) {
+    var value = arg instanceof LazySeq lazy ? lazy.force() : arg;
+    if (value.equals(Util.nil)) {
       return Util.nil;
-    } else if (args instanceof Cons cons) {
+    } else if (value instanceof Cons cons) {
       return cons.cdr;
     } else {
-      throw new Error(String.format("Cannot take the cdr of %s - not a Cons cell", args));
+      throw new Error(String.format("Cannot take the cdr of %s - not a Cons cell", arg));
     }
   }
 
@@ -204,7 +452,7 @@ final class Nil extends LispObject {
 
   @Override
   public int hashCode() {
-    return Objects.hash(this);
+    return 0;
   }
 
   @Override
@@ -225,19 +473,27 @@ final class True extends LispObject {
 
 final class AddFunction extends BuiltinFunction {
   @Override
-  public LispObject apply(LispObject args) {
-    var res = 0;
+  public LispObject applyN(LispObject[] args) {
+    LispNumber res = Integer.valueOf(0);
 
-    while (!args.equals(Util.nil)) {
-      if (Util.car(args) instanceof Integer n) {
-        res += n.integer;
+    for (var arg : args) {
+      if (arg instanceof LispNumber n) {
+        res = Numbers.add(res, n);
       } else {
-        throw new Error(String.format("\"%s\" passed to `+` is not a number", Util.car(args)));
+        throw new Error(String.format("\"%s\" passed to `+` is not a number", arg));
       }
-      args = Util.cdr(args);
     }
 
-    return new Integer(res);
+    return res;
+  }
+
+  // fast path for the common two-argument case
+  @Override
+  public LispObject apply2(LispObject a, LispObject b) {
+    if (a instanceof Integer m && b instanceof Integer n) {
+      return Numbers.fromLong((long) m.integer + n.integer);
+    }
+    return applyN(new LispObject[] {a, b});
   }
 
   @Override
@@ -248,26 +504,36 @@ final class AddFunction extends BuiltinFunction {
 
 final class SubFunction extends BuiltinFunction {
   @Override
-  public LispObject apply(LispObject args) {
-    var res = 0;
+  public LispObject applyN(LispObject[] args) {
+    if (args.length == 0) {
+      throw new Error("`-` expects at least one argument");
+    }
 
-    if (Util.car(args) instanceof Integer m) {
-      res = m.integer;
-      args = Util.cdr(args);
+    LispNumber res;
+    if (args[0] instanceof LispNumber m) {
+      res = m;
     } else {
-      throw new Error(String.format("\"%s\" passed to `-` is not a number", Util.car(args)));
+      throw new Error(String.format("\"%s\" passed to `-` is not a number", args[0]));
     }
 
-    while (!args.equals(Util.nil)) {
-      if (Util.car(args) instanceof Integer n) {
-        res -= n.integer;
+    for (int i = 1; i < args.length; i++) {
+      if (args[i] instanceof LispNumber n) {
+        res = Numbers.sub(res, n);
       } else {
-        throw new Error(String.format("\"%s\" passed to `-` is not a number", Util.car(args)));
+        throw new Error(String.format("\"%s\" passed to `-` is not a number", args[i]));
       }
-      args = Util.cdr(args);
     }
 
-    return new Integer(res);
+    return res;
+  }
+
+  // fast path for the common two-argument case
+  @Override
+  public LispObject apply2(LispObject a, LispObject b) {
+    if (a instanceof Integer m && b instanceof Integer n) {
+      return Numbers.fromLong((long) m.integer - n.integer);
+    }
+    return applyN(new LispObject[] {a, b});
   }
 
   @Override
@@ -278,19 +544,27 @@ final class SubFunction extends BuiltinFunction {
 
 final class MulFunction extends BuiltinFunction {
   @Override
-  public LispObject apply(LispObject args) {
-    var res = 1;
+  public LispObject applyN(LispObject[] args) {
+    LispNumber res = Integer.valueOf(1);
 
-    while (!args.equals(Util.nil)) {
-      if (Util.car(args) instanceof Integer n) {
-        res *= n.integer;
+    for (var arg : args) {
+      if (arg instanceof LispNumber n) {
+        res = Numbers.mul(res, n);
       } else {
-        throw new Error(String.format("\"%s\" passed to `*` is not a number", Util.car(args)));
+        throw new Error(String.format("\"%s\" passed to `*` is not a number", arg));
       }
-      args = Util.cdr(args);
     }
 
-    return new Integer(res);
+    return res;
+  }
+
+  // fast path for the common two-argument case
+  @Override
+  public LispObject apply2(LispObject a, LispObject b) {
+    if (a instanceof Integer m && b instanceof Integer n) {
+      return Numbers.fromLong((long) m.integer * n.integer);
+    }
+    return applyN(new LispObject[] {a, b});
   }
 
   @Override
@@ -301,25 +575,36 @@ final class MulFunction extends BuiltinFunction {
 
 final class DivFunction extends BuiltinFunction {
   @Override
-  public LispObject apply(LispObject args) {
-    var res = 0;
-    if (Util.car(args) instanceof Integer m) {
-      res = m.integer;
-      args = Util.cdr(args);
+  public LispObject applyN(LispObject[] args) {
+    if (args.length == 0) {
+      throw new Error("`/` expects at least one argument");
+    }
+
+    LispNumber res;
+    if (args[0] instanceof LispNumber m) {
+      res = m;
     } else {
-      throw new Error(String.format("\"%s\" passed to `/` is not a number", Util.car(args)));
+      throw new Error(String.format("\"%s\" passed to `/` is not a number", args[0]));
     }
 
-    while (!args.equals(Util.nil)) {
-      if (Util.car(args) instanceof Integer n) {
-        res /= n.integer;
+    for (int i = 1; i < args.length; i++) {
+      if (args[i] instanceof LispNumber n) {
+        res = Numbers.div(res, n);
       } else {
-        throw new Error(String.format("\"%s\" passed to `/` is not a number", Util.car(args)));
+        throw new Error(String.format("\"%s\" passed to `/` is not a number", args[i]));
       }
-      args = Util.cdr(args);
     }
 
-    return new Integer(res);
+    return res;
+  }
+
+  // fast path for the common two-argument case
+  @Override
+  public LispObject apply2(LispObject a, LispObject b) {
+    if (a instanceof Integer m && b instanceof Integer n) {
+      return Numbers.div(m, n);
+    }
+    return applyN(new LispObject[] {a, b});
   }
 
   @Override
@@ -330,17 +615,19 @@ final class DivFunction extends BuiltinFunction {
 
 final class EqFunction extends BuiltinFunction {
   @Override
-  public LispObject apply(LispObject args) {
-    var argsLen = Util.consLength(args);
-    if (argsLen != 2) {
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 2) {
       throw new Error(
-          String.format("incorrect number of arguments for `eq?` - expected 2, got %d", argsLen));
+          String.format(
+              "incorrect number of arguments for `eq?` - expected 2, got %d", args.length));
     }
 
-    var firstArg = Util.car(args);
-    var secondArg = Util.car(Util.cdr(args));
+    return apply2(args[0], args[1]);
+  }
 
-    return firstArg.equals(secondArg) ? Util.t : Util.nil;
+  @Override
+  public LispObject apply2(LispObject a, LispObject b) {
+    return a.equals(b) ? Util.t : Util.nil;
   }
 
   @Override
@@ -351,19 +638,25 @@ final class EqFunction extends BuiltinFunction {
 
 final class LessThanFunction extends BuiltinFunction {
   @Override
-  public LispObject apply(LispObject args) {
-    var argsLen = Util.consLength(args);
-    if (argsLen != 2) {
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 2) {
       throw new Error(
-          String.format("incorrect numnber of arguments for `<` - expected 2, got %d", argsLen));
+          String.format(
+              "incorrect numnber of arguments for `<` - expected 2, got %d", args.length));
     }
 
-    if (Util.car(args) instanceof Integer first) {
-      if (Util.car(Util.cdr(args)) instanceof Integer second) {
-        return switch (first.compareTo(second)) {
-          case -1 -> Util.t;
-          default -> Util.nil;
-        };
+    return apply2(args[0], args[1]);
+  }
+
+  @Override
+  public LispObject apply2(LispObject a, LispObject b) {
+    if (a instanceof Integer m && b instanceof Integer n) {
+      return m.integer < n.integer ? Util.t : Util.nil;
+    }
+
+    if (a instanceof LispNumber first) {
+      if (b instanceof LispNumber second) {
+        return Numbers.compare(first, second) < 0 ? Util.t : Util.nil;
       } else {
         throw new Error("second argument to `<` is not a number");
       }
@@ -378,172 +671,2167 @@ final class LessThanFunction extends BuiltinFunction {
   }
 }
 
+// like &rest parameters, `apply` still builds an argument list
 final class ApplyFunction extends BuiltinFunction {
   @Override
-  public LispObject apply(LispObject args) {
-    if (Util.car(args) instanceof ApplicableExpression fn) {
-      args = Util.cdr(args);
-      if (!args.isCons()) {
+  public LispObject applyN(LispObject[] args) {
+    var fn = args.length > 0 ? args[0] : Util.nil;
+    if (fn instanceof ApplicableExpression applicable) {
+      if (args.length == 1) {
         throw new Error("the arguments to the function for `apply` must be a list");
       }
 
-      return fn.apply(args);
+      var rest = new ListBuilder();
+      for (int i = 1; i < args.length; i++) {
+        rest.add(args[i]);
+      }
+      return applicable.apply(rest.build());
     } else {
-      throw new Error(String.format("%s is not a function", Util.car(args)));
+      throw new Error(String.format("%s is not a function", fn));
     }
   }
 }
 
 final class PairCheckFunction extends BuiltinFunction {
   @Override
-  public LispObject apply(LispObject args) {
-    return Util.car(args).isCons() ? Util.t : Util.nil;
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 1) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `pair?` - expected 1, got %d", args.length));
+    }
+
+    return apply1(args[0]);
+  }
+
+  @Override
+  public LispObject apply1(LispObject arg) {
+    var value = arg instanceof LazySeq lazy ? lazy.force() : arg;
+    return value.isCons() ? Util.t : Util.nil;
   }
 }
 
 final class NullCheckFunction extends BuiltinFunction {
   @Override
-  public LispObject apply(LispObject args) {
-    return Util.car(args).isNil() ? Util.t : Util.nil;
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 1) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `null?` - expected 1, got %d", args.length));
+    }
+
+    return apply1(args[0]);
+  }
+
+  @Override
+  public LispObject apply1(LispObject arg) {
+    var value = arg instanceof LazySeq lazy ? lazy.force() : arg;
+    return value.isNil() ? Util.t : Util.nil;
   }
 }
 
 final class NumberCheckFunction extends BuiltinFunction {
   @Override
-  public LispObject apply(LispObject args) {
-    return Util.car(args) instanceof Integer ? Util.t : Util.nil;
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 1) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `number?` - expected 1, got %d", args.length));
+    }
+
+    return apply1(args[0]);
+  }
+
+  @Override
+  public LispObject apply1(LispObject arg) {
+    return arg instanceof LispNumber ? Util.t : Util.nil;
   }
 }
 
 final class SymbolCheckFunction extends BuiltinFunction {
   @Override
-  public LispObject apply(LispObject args) {
-    return Util.car(args) instanceof Symbol ? Util.t : Util.nil;
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 1) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `symbol?` - expected 1, got %d", args.length));
+    }
+
+    return apply1(args[0]);
+  }
+
+  @Override
+  public LispObject apply1(LispObject arg) {
+    return arg instanceof Symbol ? Util.t : Util.nil;
   }
 }
 
-final class MacroFunction extends ApplicableExpression {
-  public Symbol name;
-  private LambdaExpression lambda;
+final class MacroExpand1Function extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 1) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `macroexpand-1` - expected 1, got %d",
+              args.length));
+    }
 
-  public MacroFunction(
-      final Environment env, final Symbol name, final LispObject params, final LispObject body) {
-    this.name = name;
-    this.lambda = new LambdaExpression(env, params, body);
+    return apply1(args[0]);
   }
 
   @Override
-  public LispObject apply(LispObject args) {
-    return lambda.apply(args);
+  public LispObject apply1(LispObject form) {
+    return expand1(form);
+  }
+
+  // expands `form` once if it is a call to a macro, else returns it as is
+  static LispObject expand1(LispObject form) {
+    if (form instanceof Cons cons
+        && cons.car instanceof Symbol op
+        && Environment.current().retrieveGlobal(op) instanceof MacroFunction macroFn) {
+      return macroFn.apply(cons.cdr);
+    }
+    return form;
   }
 
   @Override
   public String toString() {
-    return String.format("<macro>:<%s><%d>", name, this.hashCode());
+    return "<builtin>:<macroexpand-1>";
   }
 }
 
-final class Function extends ApplicableExpression {
-  public Symbol name;
-  private LambdaExpression lambda;
+final class MacroExpandFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 1) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `macroexpand` - expected 1, got %d",
+              args.length));
+    }
 
-  public Function(
-      final Environment env, final Symbol name, final LispObject params, final LispObject body) {
-    this.name = name;
-    this.lambda = new LambdaExpression(env, params, body);
+    return apply1(args[0]);
   }
 
   @Override
-  public LispObject apply(final LispObject args) {
-    return lambda.apply(args);
+  public LispObject apply1(LispObject form) {
+    while (true) {
+      var expansion = MacroExpand1Function.expand1(form);
+      if (expansion == form) {
+        return form;
+      }
+      form = expansion;
+    }
   }
 
   @Override
   public String toString() {
-    return String.format("<function>:<%s><%d>", name, this.hashCode());
+    return "<builtin>:<macroexpand>";
   }
 }
 
-final class Integer extends LispObject implements Comparable<Integer> {
-  final int integer;
-
-  public Integer(int integer) {
-    this.integer = integer;
-  }
+/// list functions - native versions of the definitions in stdlib-reference.lisp. Each makes a
+/// single pass over its arguments, and builds its result front-to-back.
 
+final class MapFunction extends BuiltinFunction {
   @Override
-  public String toString() {
-    return String.valueOf(integer);
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 2) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `map` - expected 2, got %d", args.length));
+    }
+
+    return apply2(args[0], args[1]);
   }
 
   @Override
-  public boolean equals(Object o) {
-    if (o instanceof Integer other) {
-      return this.integer == other.integer;
+  public LispObject apply2(LispObject f, LispObject lst) {
+    if (f instanceof ApplicableExpression fn) {
+      var res = new ListBuilder();
+      while (lst instanceof Cons cons) {
+        res.add(fn.apply1(cons.car));
+        lst = cons.cdr;
+      }
+
+      if (!lst.isNil()) {
+        throw new Error(String.format("%s passed to `map` is not a list", lst));
+      }
+      return res.build();
+    } else {
+      throw new Error(String.format("%s is not a function", f));
     }
-    return false;
   }
 
   @Override
-  public int hashCode() {
-    return Objects.hashCode(this);
+  public String toString() {
+    return "<builtin>:<map>";
   }
+}
 
+final class FilterFunction extends BuiltinFunction {
   @Override
-  public int compareTo(Integer other) {
-    if (this.integer < other.integer) {
-      return -1;
-    } else if (this.integer == other.integer) {
-      return 0;
-    } else {
-      return 1;
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 2) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `filter` - expected 2, got %d", args.length));
     }
+
+    return apply2(args[0], args[1]);
   }
-}
 
-final class Symbol extends LispObject {
-  public String sym;
+  @Override
+  public LispObject apply2(LispObject f, LispObject lst) {
+    if (f instanceof ApplicableExpression pred) {
+      var res = new ListBuilder();
+      while (lst instanceof Cons cons) {
+        if (pred.apply1(cons.car).isTrue()) {
+          res.add(cons.car);
+        }
+        lst = cons.cdr;
+      }
 
-  public Symbol(final String sym) {
-    this.sym = sym.toUpperCase();
+      if (!lst.isNil()) {
+        throw new Error(String.format("%s passed to `filter` is not a list", lst));
+      }
+      return res.build();
+    } else {
+      throw new Error(String.format("%s is not a function", f));
+    }
   }
 
   @Override
   public String toString() {
-    return sym;
+    return "<builtin>:<filter>";
   }
+}
 
+final class ReverseFunction extends BuiltinFunction {
   @Override
-  public int hashCode() {
-    return Objects.hash(this.sym);
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 1) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `reverse` - expected 1, got %d", args.length));
+    }
+
+    return apply1(args[0]);
   }
 
   @Override
-  public boolean equals(Object o) {
-    if (o instanceof Symbol other) {
-      return this.sym.equalsIgnoreCase(other.sym);
+  public LispObject apply1(LispObject lst) {
+    var res = Util.nil;
+    while (lst instanceof Cons cons) {
+      res = Util.makeCons(cons.car, res);
+      lst = cons.cdr;
     }
-    return false;
+
+    if (!lst.isNil()) {
+      throw new Error(String.format("%s passed to `reverse` is not a list", lst));
+    }
+    return res;
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<reverse>";
   }
 }
 
-final class Cons extends LispObject {
-  public LispObject car;
-  public LispObject cdr;
+// every list but the last is copied - the result shares the last one
+final class AppendFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length == 0) {
+      return Util.nil;
+    }
 
-  public Cons(final LispObject car, final LispObject cdr) {
-    this.car = car;
-    this.cdr = cdr;
+    var res = new ListBuilder();
+    for (int i = 0; i < args.length - 1; i++) {
+      var lst = args[i];
+      while (lst instanceof Cons cons) {
+        res.add(cons.car);
+        lst = cons.cdr;
+      }
+
+      if (!lst.isNil()) {
+        throw new Error(String.format("%s passed to `append` is not a list", lst));
+      }
+    }
+
+    return res.build(args[args.length - 1]);
   }
 
   @Override
-  public boolean isCons() {
-    return true;
+  public String toString() {
+    return "<builtin>:<append>";
   }
+}
 
+// the arguments as a list, except that a list passed last is spliced in
+final class ListStarFunction extends BuiltinFunction {
   @Override
-  public String toString() {
-    var sb = new StringBuffer("(");
+  public LispObject applyN(LispObject[] args) {
+    if (args.length == 0) {
+      return Util.nil;
+    }
+
+    var res = new ListBuilder();
+    for (int i = 0; i < args.length - 1; i++) {
+      res.add(args[i]);
+    }
+
+    var last = args[args.length - 1];
+    if (!(last instanceof Cons)) {
+      res.add(last);
+      return res.build();
+    }
+
+    while (last instanceof Cons cons) {
+      res.add(cons.car);
+      last = cons.cdr;
+    }
+    return res.build(last);
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<list*>";
+  }
+}
+
+final class LengthFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 1) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `length` - expected 1, got %d", args.length));
+    }
+
+    return apply1(args[0]);
+  }
+
+  @Override
+  public LispObject apply1(LispObject lst) {
+    long len = 0;
+    while (lst instanceof Cons cons) {
+      len++;
+      lst = cons.cdr;
+    }
+
+    if (!lst.isNil()) {
+      throw new Error(String.format("%s passed to `length` is not a list", lst));
+    }
+    return Numbers.fromLong(len);
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<length>";
+  }
+}
+
+// the zero-based `n`th element of a list, or nil past its end
+final class NthFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 2) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `nth` - expected 2, got %d", args.length));
+    }
+
+    return apply2(args[0], args[1]);
+  }
+
+  @Override
+  public LispObject apply2(LispObject index, LispObject lst) {
+    if (index instanceof Integer n && n.integer >= 0) {
+      for (int i = 0; i < n.integer && lst instanceof Cons cons; i++) {
+        lst = cons.cdr;
+      }
+      return lst instanceof Cons cons ? cons.car : Util.nil;
+    } else {
+      throw new Error(
+          String.format("index %s passed to `nth` is not a non-negative integer", index));
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<nth>";
+  }
+}
+
+// the first pair in an association list whose car is `key`, or nil
+final class AssocFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 2) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `assoc` - expected 2, got %d", args.length));
+    }
+
+    return apply2(args[0], args[1]);
+  }
+
+  @Override
+  public LispObject apply2(LispObject key, LispObject alist) {
+    while (alist instanceof Cons cons) {
+      if (cons.car instanceof Cons pair && pair.car.equals(key)) {
+        return pair;
+      }
+      alist = cons.cdr;
+    }
+    return Util.nil;
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<assoc>";
+  }
+}
+
+// the tail of a list starting at the first element equal to `x`, or nil
+final class MemberFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 2) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `member` - expected 2, got %d", args.length));
+    }
+
+    return apply2(args[0], args[1]);
+  }
+
+  @Override
+  public LispObject apply2(LispObject x, LispObject lst) {
+    while (lst instanceof Cons cons) {
+      if (cons.car.equals(x)) {
+        return cons;
+      }
+      lst = cons.cdr;
+    }
+    return Util.nil;
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<member>";
+  }
+}
+
+/// vectors and hash tables
+
+// `(make-vector n)` is a vector of `n` nils, `(make-vector n x)` one of `n` x's
+final class MakeVectorFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    return switch (args.length) {
+      case 1 -> apply1(args[0]);
+      case 2 -> apply2(args[0], args[1]);
+      default -> throw new Error(
+          String.format(
+              "incorrect number of arguments for `make-vector` - expected 1 or 2, got %d",
+              args.length));
+    };
+  }
+
+  @Override
+  public LispObject apply1(LispObject length) {
+    return apply2(length, Util.nil);
+  }
+
+  @Override
+  public LispObject apply2(LispObject length, LispObject fill) {
+    if (length instanceof Integer n && n.integer >= 0) {
+      var items = new LispObject[n.integer];
+      Arrays.fill(items, fill);
+      return new Vector(items);
+    }
+    throw new Error(
+        String.format("length %s passed to `make-vector` is not a non-negative integer", length));
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<make-vector>";
+  }
+}
+
+final class VectorRefFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 2) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `vector-ref` - expected 2, got %d",
+              args.length));
+    }
+
+    return apply2(args[0], args[1]);
+  }
+
+  @Override
+  public LispObject apply2(LispObject vec, LispObject index) {
+    var vector = VectorLengthFunction.vector(vec, "vector-ref");
+    return vector.items[vector.index(index, "vector-ref")];
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<vector-ref>";
+  }
+}
+
+// `(vector-set! v i x)` stores x at index i of v, and returns x
+final class VectorSetFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 3) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `vector-set!` - expected 3, got %d",
+              args.length));
+    }
+
+    return apply3(args[0], args[1], args[2]);
+  }
+
+  @Override
+  public LispObject apply3(LispObject vec, LispObject index, LispObject value) {
+    var vector = VectorLengthFunction.vector(vec, "vector-set!");
+    vector.items[vector.index(index, "vector-set!")] = value;
+    return value;
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<vector-set!>";
+  }
+}
+
+final class VectorLengthFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 1) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `vector-length` - expected 1, got %d",
+              args.length));
+    }
+
+    return apply1(args[0]);
+  }
+
+  @Override
+  public LispObject apply1(LispObject vec) {
+    return Integer.valueOf(vector(vec, "vector-length").items.length);
+  }
+
+  static Vector vector(LispObject vec, String name) {
+    if (vec instanceof Vector vector) {
+      return vector;
+    }
+    throw new Error(String.format("%s passed to `%s` is not a vector", vec, name));
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<vector-length>";
+  }
+}
+
+final class MakeHashTableFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 0) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `make-hash-table` - expected 0, got %d",
+              args.length));
+    }
+
+    return new HashTable();
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<make-hash-table>";
+  }
+}
+
+// `(hash-ref table key)` is the value of key in table, or nil - `(hash-ref table key default)`
+// returns default instead of nil
+final class HashRefFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    return switch (args.length) {
+      case 2 -> apply2(args[0], args[1]);
+      case 3 -> apply3(args[0], args[1], args[2]);
+      default -> throw new Error(
+          String.format(
+              "incorrect number of arguments for `hash-ref` - expected 2 or 3, got %d",
+              args.length));
+    };
+  }
+
+  @Override
+  public LispObject apply2(LispObject table, LispObject key) {
+    return apply3(table, key, Util.nil);
+  }
+
+  @Override
+  public LispObject apply3(LispObject table, LispObject key, LispObject otherwise) {
+    var value = HashCountFunction.table(table, "hash-ref").get(key);
+    return value != null ? value : otherwise;
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<hash-ref>";
+  }
+}
+
+// `(hash-set! table key value)` makes value that of key in table, and returns value
+final class HashSetFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 3) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `hash-set!` - expected 3, got %d",
+              args.length));
+    }
+
+    return apply3(args[0], args[1], args[2]);
+  }
+
+  @Override
+  public LispObject apply3(LispObject table, LispObject key, LispObject value) {
+    HashCountFunction.table(table, "hash-set!").put(key, value);
+    return value;
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<hash-set!>";
+  }
+}
+
+// t if the key had a value, nil if not
+final class HashRemoveFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 2) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `hash-remove!` - expected 2, got %d",
+              args.length));
+    }
+
+    return apply2(args[0], args[1]);
+  }
+
+  @Override
+  public LispObject apply2(LispObject table, LispObject key) {
+    return HashCountFunction.table(table, "hash-remove!").remove(key) ? Util.t : Util.nil;
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<hash-remove!>";
+  }
+}
+
+final class HashCountFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 1) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `hash-count` - expected 1, got %d",
+              args.length));
+    }
+
+    return apply1(args[0]);
+  }
+
+  @Override
+  public LispObject apply1(LispObject table) {
+    return Integer.valueOf(table(table, "hash-count").count());
+  }
+
+  static HashTable table(LispObject table, String name) {
+    if (table instanceof HashTable hashTable) {
+      return hashTable;
+    }
+    throw new Error(String.format("%s passed to `%s` is not a hash table", table, name));
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<hash-count>";
+  }
+}
+
+/// numeric arrays - see NumericArray
+
+// `(int-array n)` is an array of `n` zeros, and `(int-array lst)` one of the numbers in `lst` -
+// likewise `long-array` and `double-array`, bound to instances for those kinds
+final class ArrayFunction extends BuiltinFunction {
+  private final NumericArray.Kind kind;
+
+  public ArrayFunction(final NumericArray.Kind kind) {
+    this.kind = kind;
+  }
+
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 1) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `%s` - expected 1, got %d",
+              kind.typeName(), args.length));
+    }
+
+    return apply1(args[0]);
+  }
+
+  @Override
+  public LispObject apply1(LispObject arg) {
+    if (arg instanceof Integer n && n.integer >= 0) {
+      return NumericArray.of(kind, n.integer);
+    }
+    if (arg instanceof Cons || arg.isNil()) {
+      return NumericArray.fromList(kind, arg);
+    }
+    throw new Error(
+        String.format(
+            "`%s` expects a length or a list of numbers, but got %s", kind.typeName(), arg));
+  }
+
+  static NumericArray array(LispObject array, String name) {
+    if (array instanceof NumericArray numeric) {
+      return numeric;
+    }
+    throw new Error(String.format("%s passed to `%s` is not a numeric array", array, name));
+  }
+
+  @Override
+  public String toString() {
+    return String.format("<builtin>:<%s>", kind.typeName());
+  }
+}
+
+final class ArrayRefFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 2) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `array-ref` - expected 2, got %d", args.length));
+    }
+
+    return apply2(args[0], args[1]);
+  }
+
+  @Override
+  public LispObject apply2(LispObject arr, LispObject index) {
+    var array = ArrayFunction.array(arr, "array-ref");
+    return array.get(array.index(index, "array-ref"));
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<array-ref>";
+  }
+}
+
+// `(array-set! a i x)` stores x at index i of a, and returns x
+final class ArraySetFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 3) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `array-set!` - expected 3, got %d",
+              args.length));
+    }
+
+    return apply3(args[0], args[1], args[2]);
+  }
+
+  @Override
+  public LispObject apply3(LispObject arr, LispObject index, LispObject value) {
+    var array = ArrayFunction.array(arr, "array-set!");
+    array.set(array.index(index, "array-set!"), value, "array-set!");
+    return value;
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<array-set!>";
+  }
+}
+
+final class ArrayLengthFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 1) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `array-length` - expected 1, got %d",
+              args.length));
+    }
+
+    return apply1(args[0]);
+  }
+
+  @Override
+  public LispObject apply1(LispObject arr) {
+    return Integer.valueOf(ArrayFunction.array(arr, "array-length").length);
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<array-length>";
+  }
+}
+
+final class ArrayToListFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 1) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `array->list` - expected 1, got %d",
+              args.length));
+    }
+
+    return apply1(args[0]);
+  }
+
+  @Override
+  public LispObject apply1(LispObject arr) {
+    return ArrayFunction.array(arr, "array->list").toList();
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<array->list>";
+  }
+}
+
+final class ArraySumFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 1) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `array-sum` - expected 1, got %d", args.length));
+    }
+
+    return apply1(args[0]);
+  }
+
+  @Override
+  public LispObject apply1(LispObject arr) {
+    return ArrayFunction.array(arr, "array-sum").sum();
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<array-sum>";
+  }
+}
+
+final class ArrayDotFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 2) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `array-dot` - expected 2, got %d", args.length));
+    }
+
+    return apply2(args[0], args[1]);
+  }
+
+  @Override
+  public LispObject apply2(LispObject a, LispObject b) {
+    return ArrayFunction.array(a, "array-dot").dot(ArrayFunction.array(b, "array-dot"));
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<array-dot>";
+  }
+}
+
+// `(array-map! op a x)` replaces each element of a with itself `op` x, where op is one of the
+// builtins + - * / and x is a number or an array of the same length - and returns a
+final class ArrayMapFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 3) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `array-map!` - expected 3, got %d",
+              args.length));
+    }
+
+    return apply3(args[0], args[1], args[2]);
+  }
+
+  @Override
+  public LispObject apply3(LispObject fn, LispObject arr, LispObject operand) {
+    var op =
+        switch (fn) {
+          case AddFunction add -> NumericArray.Op.ADD;
+          case SubFunction sub -> NumericArray.Op.SUB;
+          case MulFunction mul -> NumericArray.Op.MUL;
+          case DivFunction div -> NumericArray.Op.DIV;
+          default -> throw new Error(
+              String.format("`array-map!` expects one of + - * /, but got %s", fn));
+        };
+    var array = ArrayFunction.array(arr, "array-map!");
+    array.map(op, operand);
+    return array;
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<array-map!>";
+  }
+}
+
+// sorts an array in place, into ascending order, and returns it
+final class ArraySortFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 1) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `array-sort!` - expected 1, got %d",
+              args.length));
+    }
+
+    return apply1(args[0]);
+  }
+
+  @Override
+  public LispObject apply1(LispObject arr) {
+    var array = ArrayFunction.array(arr, "array-sort!");
+    array.sort();
+    return array;
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<array-sort!>";
+  }
+}
+
+// `(array-slice a from to)` is a view of the elements of a from index `from` up to `to`, which
+// shares them - changes to either are seen by both. `to` defaults to the length of a.
+final class ArraySliceFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    return switch (args.length) {
+      case 2 -> apply2(args[0], args[1]);
+      case 3 -> apply3(args[0], args[1], args[2]);
+      default -> throw new Error(
+          String.format(
+              "incorrect number of arguments for `array-slice` - expected 2 or 3, got %d",
+              args.length));
+    };
+  }
+
+  @Override
+  public LispObject apply2(LispObject arr, LispObject from) {
+    var array = ArrayFunction.array(arr, "array-slice");
+    return apply3(array, from, Integer.valueOf(array.length));
+  }
+
+  @Override
+  public LispObject apply3(LispObject arr, LispObject from, LispObject to) {
+    var array = ArrayFunction.array(arr, "array-slice");
+    if (from instanceof Integer start && to instanceof Integer end) {
+      return array.slice(start.integer, end.integer);
+    }
+    throw new Error(
+        String.format("`array-slice` expects integer bounds, but got %s and %s", from, to));
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<array-slice>";
+  }
+}
+
+/// persistent vectors and maps - see PersistentVector and PersistentMap. None of these change
+/// their arguments.
+
+// `(pvector x ...)` is a persistent vector of its arguments
+final class PVectorFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    return PersistentVector.of(args);
+  }
+
+  static PersistentVector pvector(LispObject vec, String name) {
+    if (vec instanceof PersistentVector pvector) {
+      return pvector;
+    }
+    throw new Error(String.format("%s passed to `%s` is not a pvector", vec, name));
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<pvector>";
+  }
+}
+
+final class PVectorRefFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 2) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `pvector-ref` - expected 2, got %d",
+              args.length));
+    }
+
+    return apply2(args[0], args[1]);
+  }
+
+  @Override
+  public LispObject apply2(LispObject vec, LispObject index) {
+    var pvector = PVectorFunction.pvector(vec, "pvector-ref");
+    return pvector.get(pvector.index(index, "pvector-ref"));
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<pvector-ref>";
+  }
+}
+
+// `(pvector-conj vec x)` is vec with x appended
+final class PVectorConjFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 2) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `pvector-conj` - expected 2, got %d",
+              args.length));
+    }
+
+    return apply2(args[0], args[1]);
+  }
+
+  @Override
+  public LispObject apply2(LispObject vec, LispObject value) {
+    return PVectorFunction.pvector(vec, "pvector-conj").conj(value);
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<pvector-conj>";
+  }
+}
+
+// `(pvector-assoc vec i x)` is vec with x at index i - which may be its length, to append x
+final class PVectorAssocFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 3) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `pvector-assoc` - expected 3, got %d",
+              args.length));
+    }
+
+    return apply3(args[0], args[1], args[2]);
+  }
+
+  @Override
+  public LispObject apply3(LispObject vec, LispObject index, LispObject value) {
+    var pvector = PVectorFunction.pvector(vec, "pvector-assoc");
+    if (index instanceof Integer n && n.integer == pvector.count) {
+      return pvector.conj(value);
+    }
+    return pvector.assoc(pvector.index(index, "pvector-assoc"), value);
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<pvector-assoc>";
+  }
+}
+
+// `(pvector-pop vec)` is vec without its last element
+final class PVectorPopFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 1) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `pvector-pop` - expected 1, got %d",
+              args.length));
+    }
+
+    return apply1(args[0]);
+  }
+
+  @Override
+  public LispObject apply1(LispObject vec) {
+    var pvector = PVectorFunction.pvector(vec, "pvector-pop");
+    if (pvector.count == 0) {
+      throw new Error("`pvector-pop` cannot pop an empty pvector");
+    }
+    return pvector.pop();
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<pvector-pop>";
+  }
+}
+
+final class PVectorLengthFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 1) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `pvector-length` - expected 1, got %d",
+              args.length));
+    }
+
+    return apply1(args[0]);
+  }
+
+  @Override
+  public LispObject apply1(LispObject vec) {
+    return Integer.valueOf(PVectorFunction.pvector(vec, "pvector-length").count);
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<pvector-length>";
+  }
+}
+
+final class PVectorToListFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 1) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `pvector->list` - expected 1, got %d",
+              args.length));
+    }
+
+    return apply1(args[0]);
+  }
+
+  @Override
+  public LispObject apply1(LispObject vec) {
+    return PVectorFunction.pvector(vec, "pvector->list").toList();
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<pvector->list>";
+  }
+}
+
+final class ListToPVectorFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 1) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `list->pvector` - expected 1, got %d",
+              args.length));
+    }
+
+    return apply1(args[0]);
+  }
+
+  @Override
+  public LispObject apply1(LispObject lst) {
+    return PersistentVector.of(Parallel.elements(lst, "list->pvector"));
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<list->pvector>";
+  }
+}
+
+// `(phash key value ...)` is a persistent map of its arguments, taken in pairs
+final class PHashFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length % 2 != 0) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `phash` - expected keys and values, got %d",
+              args.length));
+    }
+
+    var map = PersistentMap.EMPTY;
+    for (int i = 0; i < args.length; i += 2) {
+      map = map.assoc(args[i], args[i + 1]);
+    }
+    return map;
+  }
+
+  static PersistentMap phash(LispObject map, String name) {
+    if (map instanceof PersistentMap phash) {
+      return phash;
+    }
+    throw new Error(String.format("%s passed to `%s` is not a phash", map, name));
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<phash>";
+  }
+}
+
+// `(phash-ref map key)` is the value of key in map, or nil - `(phash-ref map key default)`
+// returns default instead of nil
+final class PHashRefFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    return switch (args.length) {
+      case 2 -> apply2(args[0], args[1]);
+      case 3 -> apply3(args[0], args[1], args[2]);
+      default -> throw new Error(
+          String.format(
+              "incorrect number of arguments for `phash-ref` - expected 2 or 3, got %d",
+              args.length));
+    };
+  }
+
+  @Override
+  public LispObject apply2(LispObject map, LispObject key) {
+    return apply3(map, key, Util.nil);
+  }
+
+  @Override
+  public LispObject apply3(LispObject map, LispObject key, LispObject otherwise) {
+    var value = PHashFunction.phash(map, "phash-ref").get(key);
+    return value != null ? value : otherwise;
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<phash-ref>";
+  }
+}
+
+// `(phash-assoc map key value)` is map with key bound to value
+final class PHashAssocFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 3) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `phash-assoc` - expected 3, got %d",
+              args.length));
+    }
+
+    return apply3(args[0], args[1], args[2]);
+  }
+
+  @Override
+  public LispObject apply3(LispObject map, LispObject key, LispObject value) {
+    return PHashFunction.phash(map, "phash-assoc").assoc(key, value);
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<phash-assoc>";
+  }
+}
+
+// `(phash-dissoc map key)` is map without key
+final class PHashDissocFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 2) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `phash-dissoc` - expected 2, got %d",
+              args.length));
+    }
+
+    return apply2(args[0], args[1]);
+  }
+
+  @Override
+  public LispObject apply2(LispObject map, LispObject key) {
+    return PHashFunction.phash(map, "phash-dissoc").dissoc(key);
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<phash-dissoc>";
+  }
+}
+
+final class PHashCountFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 1) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `phash-count` - expected 1, got %d",
+              args.length));
+    }
+
+    return apply1(args[0]);
+  }
+
+  @Override
+  public LispObject apply1(LispObject map) {
+    return Integer.valueOf(PHashFunction.phash(map, "phash-count").count);
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<phash-count>";
+  }
+}
+
+// `(phash->list map)` is the entries of map as pairs `(key . value)`, in no particular order
+final class PHashToListFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 1) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `phash->list` - expected 1, got %d",
+              args.length));
+    }
+
+    return apply1(args[0]);
+  }
+
+  @Override
+  public LispObject apply1(LispObject map) {
+    return PHashFunction.phash(map, "phash->list").entries();
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<phash->list>";
+  }
+}
+
+/// lazy sequences - see LazySeq
+
+// `(lazy-seq fn)` is a sequence whose elements are those of the list `(fn)` returns - called
+// only when the first is needed. The list may end in another lazy sequence, rather than nil.
+final class LazySeqFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 1) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `lazy-seq` - expected 1, got %d", args.length));
+    }
+
+    return apply1(args[0]);
+  }
+
+  @Override
+  public LispObject apply1(LispObject f) {
+    var fn = function(f, "lazy-seq");
+    return new LazySeq(fn::apply0);
+  }
+
+  static ApplicableExpression function(LispObject fn, String name) {
+    if (fn instanceof ApplicableExpression applicable) {
+      return applicable;
+    }
+    throw new Error(String.format("%s passed to `%s` is not a function", fn, name));
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<lazy-seq>";
+  }
+}
+
+final class LazyMapFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 2) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `lazy-map` - expected 2, got %d", args.length));
+    }
+
+    return apply2(args[0], args[1]);
+  }
+
+  @Override
+  public LispObject apply2(LispObject fn, LispObject seq) {
+    return LazySeq.map(LazySeqFunction.function(fn, "lazy-map"), seq);
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<lazy-map>";
+  }
+}
+
+final class LazyFilterFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 2) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `lazy-filter` - expected 2, got %d",
+              args.length));
+    }
+
+    return apply2(args[0], args[1]);
+  }
+
+  @Override
+  public LispObject apply2(LispObject pred, LispObject seq) {
+    return LazySeq.filter(LazySeqFunction.function(pred, "lazy-filter"), seq);
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<lazy-filter>";
+  }
+}
+
+// `(take n seq)` is a lazy sequence of the first n elements of seq, or all of them if fewer
+final class TakeFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 2) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `take` - expected 2, got %d", args.length));
+    }
+
+    return apply2(args[0], args[1]);
+  }
+
+  @Override
+  public LispObject apply2(LispObject n, LispObject seq) {
+    return LazySeq.take(count(n, "take"), seq);
+  }
+
+  static long count(LispObject n, String name) {
+    if (n instanceof Integer count && count.integer >= 0) {
+      return count.integer;
+    }
+    throw new Error(String.format("%s passed to `%s` is not a count", n, name));
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<take>";
+  }
+}
+
+// `(drop n seq)` is a lazy sequence of the elements of seq after the first n
+final class DropFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 2) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `drop` - expected 2, got %d", args.length));
+    }
+
+    return apply2(args[0], args[1]);
+  }
+
+  @Override
+  public LispObject apply2(LispObject n, LispObject seq) {
+    return LazySeq.drop(TakeFunction.count(n, "drop"), seq);
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<drop>";
+  }
+}
+
+// `(iterate fn x)` is the infinite lazy sequence x, (fn x), (fn (fn x)) ...
+final class IterateFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 2) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `iterate` - expected 2, got %d", args.length));
+    }
+
+    return apply2(args[0], args[1]);
+  }
+
+  @Override
+  public LispObject apply2(LispObject fn, LispObject x) {
+    return LazySeq.iterate(LazySeqFunction.function(fn, "iterate"), x);
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<iterate>";
+  }
+}
+
+// `(range)` is the lazy sequence 0, 1, 2 ... - `(range end)` stops before end, `(range start end)`
+// starts at start, and `(range start end step)` counts by step, which may be negative
+final class RangeFunction extends BuiltinFunction {
+  private static final Integer ZERO = Integer.valueOf(0);
+  private static final Integer ONE = Integer.valueOf(1);
+
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    return switch (args.length) {
+      case 0 -> LazySeq.range(ZERO, null, ONE);
+      case 1 -> apply1(args[0]);
+      case 2 -> apply2(args[0], args[1]);
+      case 3 -> apply3(args[0], args[1], args[2]);
+      default -> throw new Error(
+          String.format(
+              "incorrect number of arguments for `range` - expected 0 to 3, got %d",
+              args.length));
+    };
+  }
+
+  @Override
+  public LispObject apply1(LispObject end) {
+    return apply3(ZERO, end, ONE);
+  }
+
+  @Override
+  public LispObject apply2(LispObject start, LispObject end) {
+    return apply3(start, end, ONE);
+  }
+
+  @Override
+  public LispObject apply3(LispObject start, LispObject end, LispObject step) {
+    if (start instanceof LispNumber from
+        && end instanceof LispNumber to
+        && step instanceof LispNumber by) {
+      if (Numbers.compare(by, ZERO) == 0) {
+        throw new Error("`range` expects a step other than 0");
+      }
+      return LazySeq.range(from, to, by);
+    }
+    throw new Error(
+        String.format("`range` expects numbers, but got %s, %s and %s", start, end, step));
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<range>";
+  }
+}
+
+// `(into-list seq)` forces all of seq, into a list
+final class IntoListFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 1) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `into-list` - expected 1, got %d", args.length));
+    }
+
+    return apply1(args[0]);
+  }
+
+  @Override
+  public LispObject apply1(LispObject seq) {
+    return LazySeq.toList(seq, "into-list");
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<into-list>";
+  }
+}
+
+/// parallel list functions - see Parallel. The function is applied to the elements on several
+/// threads at once, in no particular order, but the results keep the order of the list.
+
+final class PMapFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 2) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `pmap` - expected 2, got %d", args.length));
+    }
+
+    return apply2(args[0], args[1]);
+  }
+
+  @Override
+  public LispObject apply2(LispObject f, LispObject lst) {
+    if (f instanceof ApplicableExpression fn) {
+      return Util.toList(Parallel.map(fn, Parallel.elements(lst, "pmap")));
+    } else {
+      throw new Error(String.format("%s is not a function", f));
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<pmap>";
+  }
+}
+
+final class PFilterFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 2) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `pfilter` - expected 2, got %d", args.length));
+    }
+
+    return apply2(args[0], args[1]);
+  }
+
+  @Override
+  public LispObject apply2(LispObject f, LispObject lst) {
+    if (f instanceof ApplicableExpression pred) {
+      var items = Parallel.elements(lst, "pfilter");
+      var keep = Parallel.map(pred, items);
+
+      var res = new ListBuilder();
+      for (int i = 0; i < items.length; i++) {
+        if (keep[i].isTrue()) {
+          res.add(items[i]);
+        }
+      }
+      return res.build();
+    } else {
+      throw new Error(String.format("%s is not a function", f));
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<pfilter>";
+  }
+}
+
+// like foldl, but `fn` must be associative - each range of the list is folded on its own, the
+// ranges' results are combined with `fn`, and then `init` with that
+final class PReduceFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 3) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `preduce` - expected 3, got %d", args.length));
+    }
+
+    return apply3(args[0], args[1], args[2]);
+  }
+
+  @Override
+  public LispObject apply3(LispObject f, LispObject init, LispObject lst) {
+    if (f instanceof ApplicableExpression fn) {
+      return Parallel.reduce(fn, init, Parallel.elements(lst, "preduce"));
+    } else {
+      throw new Error(String.format("%s is not a function", f));
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<preduce>";
+  }
+}
+
+// `(save-image 'name)` writes the current global environment's definitions to an image - see
+// Image. There are no strings, so the image is named by a symbol - `'foo` is `foo.image`. It
+// returns t, or the list of names whose definitions could not be saved.
+final class SaveImageFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 1) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `save-image` - expected 1, got %d", args.length));
+    }
+
+    return apply1(args[0]);
+  }
+
+  @Override
+  public LispObject apply1(LispObject image) {
+    Interpreter.checkHostAccess("save-image");
+    var file = imagePath(image, "save-image");
+    List<Symbol> skipped;
+    try {
+      skipped = Image.save(Environment.current(), file);
+    } catch (IOException err) {
+      throw new Error(String.format("cannot save an image to %s - %s", file, err.getMessage()));
+    }
+    if (skipped.isEmpty()) {
+      return Util.t;
+    }
+    var lst = new ListBuilder();
+    skipped.forEach(lst::add);
+    return lst.build();
+  }
+
+  static Path imagePath(LispObject image, String name) {
+    if (image instanceof Symbol sym) {
+      return Path.of(sym.sym.toLowerCase() + ".image");
+    }
+    throw new Error(
+        String.format("`%s` expects a symbol naming an image, but got %s", name, image));
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<save-image>";
+  }
+}
+
+// `(load-image 'name)` binds the definitions in an image in the current global environment
+final class LoadImageFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length != 1) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `load-image` - expected 1, got %d", args.length));
+    }
+
+    return apply1(args[0]);
+  }
+
+  @Override
+  public LispObject apply1(LispObject image) {
+    Interpreter.checkHostAccess("load-image");
+    var file = SaveImageFunction.imagePath(image, "load-image");
+    try {
+      Image.load(Environment.current(), file);
+    } catch (IOException err) {
+      throw new Error(String.format("cannot load an image from %s - %s", file, err.getMessage()));
+    }
+    return Util.t;
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<load-image>";
+  }
+}
+
+// `(profile-start)` starts counting the calls of Lisp functions, their time and their conses;
+// `(profile-start 'sample)` samples the stacks instead - see Profiler
+final class ProfileStartFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length > 1) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `profile-start` - expected 0 or 1, got %d",
+              args.length));
+    }
+    Interpreter.checkHostAccess("profile-start");
+
+    var mode = Profiler.Mode.COUNT;
+    if (args.length == 1) {
+      if (!(args[0] instanceof Symbol sym)
+          || !(sym.sym.equals("COUNT") || sym.sym.equals("SAMPLE"))) {
+        throw new Error(
+            String.format("`profile-start` expects 'count or 'sample, but got %s", args[0]));
+      }
+      mode = Profiler.Mode.valueOf(sym.sym);
+    }
+
+    Profiler.start(mode);
+    return Util.t;
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<profile-start>";
+  }
+}
+
+// `(profile-report)` stops the profiler and prints what it found, on the REPL's console. After
+// sampling, `(profile-report 'name)` also writes the stacks sampled to `name.folded`, for flame
+// graphs. Like profile-start, it is not available to remote sessions.
+final class ProfileReportFunction extends BuiltinFunction {
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    if (args.length > 1) {
+      throw new Error(
+          String.format(
+              "incorrect number of arguments for `profile-report` - expected 0 or 1, got %d",
+              args.length));
+    }
+    Interpreter.checkHostAccess("profile-report");
+
+    Profiler.report(System.out);
+    if (args.length == 1) {
+      if (!(args[0] instanceof Symbol sym)) {
+        throw new Error(
+            String.format("`profile-report` expects a symbol naming a file, but got %s", args[0]));
+      }
+
+      var file = Path.of(sym.sym.toLowerCase() + ".folded");
+      try {
+        Profiler.writeCollapsed(file);
+      } catch (IOException err) {
+        throw new Error(String.format("cannot write %s - %s", file, err.getMessage()));
+      }
+    }
+    return Util.t;
+  }
+
+  @Override
+  public String toString() {
+    return "<builtin>:<profile-report>";
+  }
+}
+
+final class MacroFunction extends ApplicableExpression {
+  public Symbol name;
+  final LambdaExpression lambda;
+
+  public MacroFunction(
+      final Environment env, final Symbol name, final LispObject params, final LispObject body) {
+    this.name = name;
+    this.lambda = new LambdaExpression(env, params, body);
+  }
+
+  public MacroFunction(final Symbol name, final LambdaExpression lambda) {
+    this.name = name;
+    this.lambda = lambda;
+  }
+
+  // every expansion of this macro comes through here
+  @Override
+  public LispObject apply(LispObject args) {
+    return expand(() -> lambda.apply(args));
+  }
+
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    return expand(() -> lambda.applyN(args));
+  }
+
+  // counted by Metrics, recorded as a MacroExpansionEvent and seen by the Profiler
+  private LispObject expand(Supplier<LispObject> expansion) {
+    Metrics.expansion();
+    var event = new MacroExpansionEvent();
+    event.begin();
+    try {
+      return Profiler.enabled ? Profiler.profile(this, expansion) : expansion.get();
+    } finally {
+      if (event.shouldCommit()) {
+        event.macro = name.sym;
+        event.commit();
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    return String.format("<macro>:<%s><%d>", name, this.hashCode());
+  }
+}
+
+final class Function extends ApplicableExpression {
+  public Symbol name;
+  private LambdaExpression lambda;
+
+  public Function(
+      final Environment env, final Symbol name, final LispObject params, final LispObject body) {
+    this(name, new LambdaExpression(env, params, body));
+  }
+
+  public Function(final Symbol name, final LambdaExpression lambda) {
+    this.name = name;
+    this.lambda = lambda;
+    lambda.owner = this;
+  }
+
+  @Override
+  public LispObject apply(final LispObject args) {
+    return lambda.apply(args);
+  }
+
+  @Override
+  public LispObject applyN(final LispObject[] args) {
+    return lambda.applyN(args);
+  }
+
+  @Override
+  public LambdaExpression lambda() {
+    return lambda;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("<function>:<%s><%d>", name, this.hashCode());
+  }
+}
+
+// a Function compiled by the Jit, which takes over the function's global binding
+final class CompiledFunction extends ApplicableExpression {
+  final Function function;
+  final CompiledBody body;
+
+  CompiledFunction(final Function function, final CompiledBody body) {
+    this.function = function;
+    this.body = body;
+    body.self = this;
+  }
+
+  @Override
+  public LispObject apply(LispObject args) {
+    return applyN(Util.toArray(args));
+  }
+
+  @Override
+  public LispObject applyN(LispObject[] args) {
+    return TailCall.resolve(invoke(args));
+  }
+
+  @Override
+  public LispObject apply0() {
+    return TailCall.resolve(body.call0());
+  }
+
+  @Override
+  public LispObject apply1(LispObject a) {
+    return TailCall.resolve(body.call1(a));
+  }
+
+  @Override
+  public LispObject apply2(LispObject a, LispObject b) {
+    return TailCall.resolve(body.call2(a, b));
+  }
+
+  @Override
+  public LispObject apply3(LispObject a, LispObject b, LispObject c) {
+    return TailCall.resolve(body.call3(a, b, c));
+  }
+
+  @Override
+  boolean isTailCallable() {
+    return true;
+  }
+
+  // may return a TailCall
+  LispObject invoke(LispObject[] args) {
+    return switch (args.length) {
+      case 0 -> body.call0();
+      case 1 -> body.call1(args[0]);
+      case 2 -> body.call2(args[0], args[1]);
+      case 3 -> body.call3(args[0], args[1], args[2]);
+      default -> throw body.arity(args.length);
+    };
+  }
+
+  @Override
+  public String toString() {
+    return String.format("<function>:<%s><%d>", function.name, this.hashCode());
+  }
+}
+
+abstract sealed class LispNumber extends LispObject permits Integer, Bignum, Flonum {}
+
+final class Integer extends LispNumber implements Comparable<Integer> {
+  // values in [CACHE_LOW, CACHE_HIGH] are preallocated and shared - the range can be set with
+  // the rdlisp.integerCache.low and rdlisp.integerCache.high system properties
+  private static final int CACHE_LOW =
+      java.lang.Integer.getInteger("rdlisp.integerCache.low", -1024);
+  private static final int CACHE_HIGH =
+      java.lang.Integer.getInteger("rdlisp.integerCache.high", 65535);
+  private static final Integer[] cache = new Integer[Math.max(CACHE_HIGH - CACHE_LOW + 1, 0)];
+
+  static {
+    for (int i = 0; i < cache.length; i++) {
+      cache[i] = new Integer(CACHE_LOW + i);
+    }
+  }
+
+  final int integer;
+
+  private Integer(int integer) {
+    this.integer = integer;
+  }
+
+  public static Integer valueOf(int integer) {
+    if (integer >= CACHE_LOW && integer <= CACHE_HIGH) {
+      return cache[integer - CACHE_LOW];
+    }
+
+    Metrics.integer();
+    return new Integer(integer);
+  }
+
+  @Override
+  public String toString() {
+    return String.valueOf(integer);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o instanceof Integer other) {
+      return this.integer == other.integer;
+    }
+    return false;
+  }
+
+  @Override
+  public int hashCode() {
+    return integer;
+  }
+
+  @Override
+  public int compareTo(Integer other) {
+    if (this.integer < other.integer) {
+      return -1;
+    } else if (this.integer == other.integer) {
+      return 0;
+    } else {
+      return 1;
+    }
+  }
+}
+
+// an integer too large for an Integer - see Numbers
+final class Bignum extends LispNumber {
+  final BigInteger bignum;
+
+  public Bignum(final BigInteger bignum) {
+    this.bignum = bignum;
+  }
+
+  @Override
+  public String toString() {
+    return bignum.toString();
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o instanceof Bignum other) {
+      return this.bignum.equals(other.bignum);
+    }
+    return false;
+  }
+
+  @Override
+  public int hashCode() {
+    return bignum.hashCode();
+  }
+}
+
+final class Flonum extends LispNumber {
+  final double flonum;
+
+  public Flonum(final double flonum) {
+    this.flonum = flonum;
+  }
+
+  @Override
+  public String toString() {
+    return String.valueOf(flonum);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o instanceof Flonum other) {
+      return Double.compare(this.flonum, other.flonum) == 0;
+    }
+    return false;
+  }
+
+  @Override
+  public int hashCode() {
+    return Double.hashCode(flonum);
+  }
+}
+
+final class Symbol extends LispObject {
+  public final String sym;
+  final SpecialForm special;
+  // the symbol's global binding
+  final Cell cell = new Cell();
+  private final int hash;
+
+  // only SymbolTable creates symbols - use Util.makeSymbol
+  Symbol(final String sym) {
+    this.sym = sym;
+    this.special = SpecialForm.named(sym);
+    this.hash = sym.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return sym;
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return this == o;
+  }
+}
+
+final class Cons extends LispObject {
+  // how many elements of a list its hash code covers
+  private static final int HASHED = 32;
+
+  public LispObject car;
+  public LispObject cdr;
+
+  public Cons(final LispObject car, final LispObject cdr) {
+    this.car = car;
+    this.cdr = cdr;
+    Metrics.cons();
+    if (Profiler.enabled) {
+      Profiler.cons();
+    }
+  }
+
+  @Override
+  public boolean isCons() {
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    var sb = new StringBuffer("(");
     sb.append(car.toString());
     var obj = cdr;
 
@@ -562,9 +2850,17 @@ final class Cons extends LispObject {
     return sb.toString();
   }
 
+  // consistent with equals, which is structural - but over the first HASHED elements only, so
+  // that hashing a long list takes bounded time
   @Override
   public int hashCode() {
-    return Objects.hash(this);
+    var hash = 1;
+    LispObject obj = this;
+    for (int i = 0; i < HASHED && obj instanceof Cons cons; i++) {
+      hash = 31 * hash + cons.car.hashCode();
+      obj = cons.cdr;
+    }
+    return obj instanceof Cons ? hash : 31 * hash + obj.hashCode();
   }
 
   @Override
@@ -576,9 +2872,307 @@ final class Cons extends LispObject {
   }
 }
 
+// A fixed-length array of objects, with constant-time access - read as `#(a b c)`. Like lists,
+// vectors are equal when their elements are.
+final class Vector extends LispObject implements SelfEvaluating {
+  final LispObject[] items;
+
+  public Vector(final LispObject[] items) {
+    this.items = items;
+  }
+
+  // the element at `index`, which must be an Integer in range
+  int index(LispObject index, String name) {
+    if (index instanceof Integer n && n.integer >= 0 && n.integer < items.length) {
+      return n.integer;
+    }
+    throw new Error(
+        String.format(
+            "index %s passed to `%s` is out of range for a vector of length %d",
+            index, name, items.length));
+  }
+
+  @Override
+  public String toString() {
+    var sb = new StringBuilder("#(");
+    for (int i = 0; i < items.length; i++) {
+      if (i > 0) {
+        sb.append(' ');
+      }
+      sb.append(items[i]);
+    }
+    return sb.append(')').toString();
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(items);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof Vector other && Arrays.equals(items, other.items);
+  }
+}
+
+// A mutable table from keys to values, compared as by `eq?` - read and printed as
+// `#hash((key . value) ...)`. Open addressing with linear probing, in arrays that are never more
+// than two-thirds full; a removal shifts back the entries after it, so there are no tombstones.
+// A key must not be changed while it is in a table, and a table must not be changed by one
+// thread while others use it.
+final class HashTable extends LispObject implements SelfEvaluating {
+  private LispObject[] keys;
+  private LispObject[] values;
+  private int count;
+
+  public HashTable() {
+    this.keys = new LispObject[8];
+    this.values = new LispObject[8];
+  }
+
+  // the value of `key`, or null if it has none
+  LispObject get(LispObject key) {
+    var mask = keys.length - 1;
+    for (int i = slot(key, mask); keys[i] != null; i = (i + 1) & mask) {
+      if (keys[i].equals(key)) {
+        return values[i];
+      }
+    }
+    return null;
+  }
+
+  void put(LispObject key, LispObject value) {
+    var mask = keys.length - 1;
+    var i = slot(key, mask);
+    for (; keys[i] != null; i = (i + 1) & mask) {
+      if (keys[i].equals(key)) {
+        values[i] = value;
+        return;
+      }
+    }
+
+    keys[i] = key;
+    values[i] = value;
+    if (++count * 3 > keys.length * 2) {
+      resize();
+    }
+  }
+
+  // whether `key` had a value
+  boolean remove(LispObject key) {
+    var mask = keys.length - 1;
+    var i = slot(key, mask);
+    for (; keys[i] != null; i = (i + 1) & mask) {
+      if (keys[i].equals(key)) {
+        break;
+      }
+    }
+    if (keys[i] == null) {
+      return false;
+    }
+
+    // move back each entry after the hole that would no longer be found past it
+    for (var next = (i + 1) & mask; keys[next] != null; next = (next + 1) & mask) {
+      var home = slot(keys[next], mask);
+      if (((next - home) & mask) >= ((next - i) & mask)) {
+        keys[i] = keys[next];
+        values[i] = values[next];
+        i = next;
+      }
+    }
+    keys[i] = null;
+    values[i] = null;
+    count--;
+    return true;
+  }
+
+  int count() {
+    return count;
+  }
+
+  // the entries, as pairs
+  LispObject entries() {
+    var entries = new ListBuilder();
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != null) {
+        entries.add(Util.makeCons(keys[i], values[i]));
+      }
+    }
+    return entries.build();
+  }
+
+  private void resize() {
+    var oldKeys = keys;
+    var oldValues = values;
+    keys = new LispObject[oldKeys.length * 2];
+    values = new LispObject[oldKeys.length * 2];
+    var mask = keys.length - 1;
+    for (int j = 0; j < oldKeys.length; j++) {
+      if (oldKeys[j] != null) {
+        var i = slot(oldKeys[j], mask);
+        while (keys[i] != null) {
+          i = (i + 1) & mask;
+        }
+        keys[i] = oldKeys[j];
+        values[i] = oldValues[j];
+      }
+    }
+  }
+
+  private static int slot(LispObject key, int mask) {
+    var hash = key.hashCode();
+    return (hash ^ (hash >>> 16)) & mask;
+  }
+
+  @Override
+  public String toString() {
+    var entries = entries();
+    return entries.isNil() ? "#hash()" : "#hash" + entries;
+  }
+}
+
 final class Eof extends LispObject {
   @Override
   public String toString() {
     return "EOF";
   }
 }
+
+/// Resolved code - produced by the Resolver in place of variable references and nested
+/// lambda forms. These only ever appear inside lambda bodies, never in data.
+
+final class LocalRef extends LispObject {
+  final int depth;
+  final int slot;
+  final Symbol name;
+
+  public LocalRef(final int depth, final int slot, final Symbol name) {
+    this.depth = depth;
+    this.slot = slot;
+    this.name = name;
+  }
+
+  @Override
+  public String toString() {
+    return name.toString();
+  }
+}
+
+final class GlobalRef extends LispObject {
+  final Symbol name;
+  // the cell of `name` in the global environment the site last ran in - it is the same cell
+  // whenever the name is rebound there, so it needs no invalidation
+  private record Site(Environment global, Cell cell) {}
+
+  private Site site;
+
+  public GlobalRef(final Symbol name) {
+    this.name = name;
+  }
+
+  // the global binding of `name`, or null if unbound
+  public LispObject lookup(Environment env) {
+    var global = env.global();
+    var site = this.site;
+    if (site == null || site.global != global) {
+      site = new Site(global, global.cell(name));
+      this.site = site;
+    }
+    return site.cell.get();
+  }
+
+  @Override
+  public String toString() {
+    return name.toString();
+  }
+}
+
+final class LambdaTemplate extends LispObject {
+  final LispObject form;
+  final LispObject params;
+  final Scope scope;
+  final LispObject body;
+  final int paramCount;
+
+  public LambdaTemplate(
+      final LispObject form,
+      final LispObject params,
+      final Scope scope,
+      final LispObject body,
+      final int paramCount) {
+    this.form = form;
+    this.params = params;
+    this.scope = scope;
+    this.body = body;
+    this.paramCount = paramCount;
+  }
+
+  @Override
+  public String toString() {
+    return form.toString();
+  }
+}
+
+// a call to a macro in a resolved body. The expansion is cached, and reused for as long as the
+// operator is still bound to the same macro - redefining the macro invalidates it.
+final class MacroCallSite extends LispObject {
+  private record Expansion(MacroFunction macro, LispObject code) {}
+
+  final Symbol op;
+  final GlobalRef operator;
+  final Cons form;
+  private Expansion expansion;
+
+  public MacroCallSite(final Symbol op, final Cons form) {
+    this.op = op;
+    this.operator = new GlobalRef(op);
+    this.form = form;
+  }
+
+  public LispObject expand(Environment env, MacroFunction macro) {
+    var expansion = this.expansion;
+    if (expansion == null || expansion.macro != macro) {
+      var code = Resolver.resolve(macro.apply(form.cdr), env.scope(), env.global());
+      expansion = new Expansion(macro, code);
+      this.expansion = expansion;
+    }
+
+    return expansion.code;
+  }
+
+  @Override
+  public String toString() {
+    return form.toString();
+  }
+}
+
+// a call in tail position of a lambda body, left for the caller's trampoline to make. Every
+// engine, and compiled code, returns one for a callee it cannot run in place, whichever tier that
+// callee is in - so tail calls between interpreted and compiled functions take no stack either.
+final class TailCall extends LispObject {
+  final ApplicableExpression fn;
+  final LispObject[] args;
+
+  public TailCall(final ApplicableExpression fn, final LispObject[] args) {
+    this.fn = fn;
+    this.args = args;
+  }
+
+  // makes `result`, if it is a TailCall, and the tail calls that leads to, one after the other
+  static LispObject resolve(LispObject result) {
+    while (result instanceof TailCall call) {
+      Interpreter.checkInterrupt();
+      result = call.step();
+    }
+    return result;
+  }
+
+  // the callee's body run once - a tail call it makes is returned rather than made
+  LispObject step() {
+    if (fn instanceof CompiledFunction compiled) {
+      return compiled.invoke(args);
+    }
+    var lambda = fn.lambda();
+    return lambda != null ? lambda.step(args) : fn.applyN(args);
+  }
+}
@@ -0,0 +1,30 @@
+package com.tzj.rdlisp;
+
+// builds a list front-to-back in a single pass by keeping a pointer to its last cell
+final class ListBuilder {
+  private LispObject head = Util.nil;
+  private Cons last;
+
+  void add(LispObject obj) {
+    var pair = new Cons(obj, Util.nil);
+    if (last == null) {
+      head = pair;
+    } else {
+      last.cdr = pair;
+    }
+    last = pair;
+  }
+
+  // the list built so far, ending in `tail` instead of nil - `tail` is shared, not copied
+  LispObject build(LispObject tail) {
+    if (last == null) {
+      return tail;
+    }
+    last.cdr = tail;
+    return head;
+  }
+
+  LispObject build() {
+    return build(Util.nil);
+  }
+}
@@ -0,0 +1,144 @@
+package com.tzj.rdlisp;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Counters of what the interpreter does, for watching a long-lived process from the outside -
+// register() publishes them as the MBean com.tzj.rdlisp:type=Metrics, for jconsole, VisualVM or
+// any JMX client. Until then, or with the rdlisp.metrics system property false, the engines skip
+// the counting, at the cost of a read of `enabled`.
+//
+// The allocation counters are those behind Evaluator.consesAllocated and integersAllocated.
+// Calls made by Jit-compiled code are counted, but evaluation depth only grows through
+// interpreted calls.
+public final class Metrics implements MetricsMXBean {
+  public static final String NAME = "com.tzj.rdlisp:type=Metrics";
+
+  static volatile boolean enabled = Boolean.getBoolean("rdlisp.metrics");
+
+  private static final LongAdder forms = new LongAdder();
+  private static final LongAdder calls = new LongAdder();
+  private static final LongAdder expansions = new LongAdder();
+  // allocations - of conses, and of integers outside the cache of small ones
+  static final LongAdder conses = new LongAdder();
+  static final LongAdder integers = new LongAdder();
+  private static final AtomicInteger maxDepth = new AtomicInteger();
+  private static final ThreadLocal<int[]> depth = ThreadLocal.withInitial(() -> new int[1]);
+
+  private Metrics() {}
+
+  // starts counting, and registers the MBean with the platform MBeanServer - once per process
+  public static synchronized void register() {
+    enabled = true;
+    try {
+      ManagementFactory.getPlatformMBeanServer()
+          .registerMBean(new Metrics(), new ObjectName(NAME));
+    } catch (InstanceAlreadyExistsException err) {
+      // registered already
+    } catch (JMException err) {
+      throw new IllegalStateException(err);
+    }
+  }
+
+  /// counting, called by the engines
+
+  static void form() {
+    if (enabled) {
+      forms.increment();
+    }
+  }
+
+  // on entry to every Lisp function - also from compiled code
+  static void call() {
+    if (enabled) {
+      calls.increment();
+    }
+  }
+
+  static void expansion() {
+    if (enabled) {
+      expansions.increment();
+    }
+  }
+
+  static void cons() {
+    if (enabled) {
+      conses.increment();
+    }
+  }
+
+  static void integer() {
+    if (enabled) {
+      integers.increment();
+    }
+  }
+
+  // around a nested evaluation or call - only when enabled, and always paired
+  static void enter() {
+    var depth = ++Metrics.depth.get()[0];
+    if (depth > maxDepth.get()) {
+      maxDepth.accumulateAndGet(depth, Math::max);
+    }
+  }
+
+  static void exit() {
+    Metrics.depth.get()[0]--;
+  }
+
+  /// the MBean
+
+  @Override
+  public long getFormsEvaluated() {
+    return forms.sum();
+  }
+
+  @Override
+  public long getFunctionCalls() {
+    return calls.sum();
+  }
+
+  @Override
+  public long getMacroExpansions() {
+    return expansions.sum();
+  }
+
+  @Override
+  public long getConsesAllocated() {
+    return Evaluator.consesAllocated();
+  }
+
+  @Override
+  public long getIntegersAllocated() {
+    return Evaluator.integersAllocated();
+  }
+
+  @Override
+  public int getInternedSymbols() {
+    return SymbolTable.size();
+  }
+
+  @Override
+  public int getGlobalBindings() {
+    var count = 0;
+    for (var sym : SymbolTable.symbols()) {
+      if (sym.cell.value != null) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public int getMaxEvalDepth() {
+    return maxDepth.get();
+  }
+
+  @Override
+  public void resetMaxEvalDepth() {
+    maxDepth.set(0);
+  }
+}
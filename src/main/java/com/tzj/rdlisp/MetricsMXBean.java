@@ -0,0 +1,27 @@
+package com.tzj.rdlisp;
+
+// What Metrics exposes over JMX, as the MBean com.tzj.rdlisp:type=Metrics
+public interface MetricsMXBean {
+  // top-level forms given to an Engine
+  long getFormsEvaluated();
+
+  // calls of Lisp functions, interpreted or compiled
+  long getFunctionCalls();
+
+  long getMacroExpansions();
+
+  long getConsesAllocated();
+
+  // integers allocated outside the cache of small ones
+  long getIntegersAllocated();
+
+  int getInternedSymbols();
+
+  // symbols bound in the root environment
+  int getGlobalBindings();
+
+  // the deepest nesting of evaluations and calls seen on any thread
+  int getMaxEvalDepth();
+
+  void resetMaxEvalDepth();
+}
@@ -0,0 +1,308 @@
+package com.tzj.rdlisp;
+
+// The executable tree produced by the Analyzer. Special forms, variable addresses and the
+// shape of every call are worked out once, at analysis time, so executing a node does no
+// dispatching on symbols and no walking of the source form.
+abstract class Node {
+  abstract LispObject execute(Environment env);
+}
+
+final class ConstantNode extends Node {
+  private final LispObject value;
+
+  ConstantNode(final LispObject value) {
+    this.value = value;
+  }
+
+  @Override
+  LispObject execute(Environment env) {
+    return value;
+  }
+}
+
+final class LocalNode extends Node {
+  private final int depth;
+  private final int slot;
+
+  LocalNode(final int depth, final int slot) {
+    this.depth = depth;
+    this.slot = slot;
+  }
+
+  @Override
+  LispObject execute(Environment env) {
+    return env.retrieveLocal(depth, slot);
+  }
+}
+
+final class GlobalNode extends Node {
+  final GlobalRef ref;
+
+  GlobalNode(final GlobalRef ref) {
+    this.ref = ref;
+  }
+
+  @Override
+  LispObject execute(Environment env) {
+    var binding = ref.lookup(env);
+    if (binding == null) {
+      throw new Error(String.format("%s is not bound", ref.name));
+    }
+
+    return binding;
+  }
+}
+
+final class IfNode extends Node {
+  private final Node cond;
+  private final Node then;
+  private final Node otherwise;
+
+  IfNode(final Node cond, final Node then, final Node otherwise) {
+    this.cond = cond;
+    this.then = then;
+    this.otherwise = otherwise;
+  }
+
+  @Override
+  LispObject execute(Environment env) {
+    return cond.execute(env).isTrue() ? then.execute(env) : otherwise.execute(env);
+  }
+}
+
+final class LambdaNode extends Node {
+  private final LispObject params;
+  private final LispObject body;
+  private final Scope scope;
+  private final int paramCount;
+  private final Node code;
+
+  LambdaNode(
+      final LispObject params,
+      final LispObject body,
+      final Scope scope,
+      final int paramCount,
+      final Node code) {
+    this.params = params;
+    this.body = body;
+    this.scope = scope;
+    this.paramCount = paramCount;
+    this.code = code;
+  }
+
+  @Override
+  LambdaExpression execute(Environment env) {
+    return new LambdaExpression(env, params, body, scope, paramCount, code);
+  }
+}
+
+// `def`, `defun` and `defmacro` - binds in the frame resolved at analysis time, or globally
+abstract class DefinitionNode extends Node {
+  protected final Symbol name;
+  private final LispObject address;
+
+  DefinitionNode(final Symbol name, final Scope scope) {
+    this.name = name;
+    this.address = Resolver.address(name, scope);
+  }
+
+  protected void bind(Environment env, LispObject value) {
+    if (address instanceof LocalRef ref) {
+      env.bindLocal(ref.depth, ref.slot, value);
+    } else {
+      env.bindGlobal(name, value);
+    }
+  }
+}
+
+final class DefNode extends DefinitionNode {
+  private final Node value;
+
+  DefNode(final Symbol name, final Scope scope, final Node value) {
+    super(name, scope);
+    this.value = value;
+  }
+
+  @Override
+  LispObject execute(Environment env) {
+    bind(env, value.execute(env));
+    return name;
+  }
+}
+
+final class DefunNode extends DefinitionNode {
+  private final LambdaNode lambda;
+
+  DefunNode(final Symbol name, final Scope scope, final LambdaNode lambda) {
+    super(name, scope);
+    this.lambda = lambda;
+  }
+
+  @Override
+  LispObject execute(Environment env) {
+    var fn = new Function(name, lambda.execute(env));
+    bind(env, fn);
+    return fn;
+  }
+}
+
+final class DefmacroNode extends DefinitionNode {
+  private final LambdaNode lambda;
+
+  DefmacroNode(final Symbol name, final Scope scope, final LambdaNode lambda) {
+    super(name, scope);
+    this.lambda = lambda;
+  }
+
+  @Override
+  LispObject execute(Environment env) {
+    var macroFn = new MacroFunction(name, lambda.execute(env));
+    bind(env, macroFn);
+    return macroFn;
+  }
+}
+
+/// quasiquote templates - these mirror Evaluator.quasiQuote case by case
+
+final class UnquoteNode extends Node {
+  private final Node expr;
+
+  UnquoteNode(final Node expr) {
+    this.expr = expr;
+  }
+
+  @Override
+  LispObject execute(Environment env) {
+    return Util.makeCons(expr.execute(env), Util.nil);
+  }
+}
+
+final class UnquoteSpliceNode extends Node {
+  private final Node expr;
+  private final Node rest;
+
+  UnquoteSpliceNode(final Node expr, final Node rest) {
+    this.expr = expr;
+    this.rest = rest;
+  }
+
+  @Override
+  LispObject execute(Environment env) {
+    return Util.append(expr.execute(env), rest.execute(env));
+  }
+}
+
+final class TemplateConsNode extends Node {
+  private final Node head;
+  private final Node tail;
+
+  TemplateConsNode(final Node head, final Node tail) {
+    this.head = head;
+    this.tail = tail;
+  }
+
+  @Override
+  LispObject execute(Environment env) {
+    var head = this.head.execute(env);
+    var tail = this.tail.execute(env);
+
+    return head.isCons() ? Util.append(head, tail) : Util.makeCons(head, tail);
+  }
+}
+
+/// calls
+
+final class CallNode extends Node {
+  private final Node fn;
+  private final Node[] args;
+  private final Cons form;
+  private final boolean tail;
+
+  CallNode(final Node fn, final Node[] args, final Cons form, final boolean tail) {
+    this.fn = fn;
+    this.args = args;
+    this.form = form;
+    this.tail = tail;
+  }
+
+  @Override
+  LispObject execute(Environment env) {
+    if (fn.execute(env) instanceof ApplicableExpression callee) {
+      if (callee instanceof MacroFunction macroFn) {
+        // became a macro after this call was analyzed
+        return MacroCallNode.expand(env, macroFn, form, tail);
+      }
+
+      if (tail && callee.isTailCallable()) {
+        return new TailCall(callee, evaluate(env));
+      }
+
+      if (Profiler.enabled && callee instanceof BuiltinFunction) {
+        var values = evaluate(env);
+        return Profiler.profile(callee, () -> callee.applyN(values));
+      }
+
+      // up to three arguments are passed without an array
+      var args = this.args;
+      return switch (args.length) {
+        case 0 -> callee.apply0();
+        case 1 -> callee.apply1(args[0].execute(env));
+        case 2 -> callee.apply2(args[0].execute(env), args[1].execute(env));
+        case 3 -> callee.apply3(
+            args[0].execute(env), args[1].execute(env), args[2].execute(env));
+        default -> callee.applyN(evaluate(env));
+      };
+    } else {
+      throw new Error(String.format("%s is not a function", form.car));
+    }
+  }
+
+  private LispObject[] evaluate(Environment env) {
+    var values = new LispObject[args.length];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = args[i].execute(env);
+    }
+
+    return values;
+  }
+}
+
+// a call whose operator named a macro when it was analyzed - the arguments are kept as forms.
+// The analyzed expansion is cached, and reused for as long as the operator is still bound to
+// the same macro - redefining the macro invalidates it.
+final class MacroCallNode extends Node {
+  private record Expansion(MacroFunction macro, Node code) {}
+
+  private final GlobalNode macro;
+  private final Cons form;
+  private final boolean tail;
+  private Expansion expansion;
+
+  MacroCallNode(final GlobalNode macro, final Cons form, final boolean tail) {
+    this.macro = macro;
+    this.form = form;
+    this.tail = tail;
+  }
+
+  @Override
+  LispObject execute(Environment env) {
+    if (macro.execute(env) instanceof MacroFunction macroFn) {
+      var expansion = this.expansion;
+      if (expansion == null || expansion.macro != macroFn) {
+        var code = Analyzer.analyze(macroFn.apply(form.cdr), env.scope(), env.global(), tail);
+        expansion = new Expansion(macroFn, code);
+        this.expansion = expansion;
+      }
+
+      return expansion.code.execute(env);
+    }
+
+    // no longer a macro
+    return Analyzer.analyze(form, env.scope(), env.global(), tail).execute(env);
+  }
+
+  static LispObject expand(Environment env, MacroFunction macroFn, Cons form, boolean tail) {
+    var expansion = macroFn.apply(form.cdr);
+    return Analyzer.analyze(expansion, env.scope(), env.global(), tail).execute(env);
+  }
+}
@@ -0,0 +1,92 @@
+package com.tzj.rdlisp;
+
+import java.math.BigInteger;
+
+// Arithmetic over the numeric tower - Integer (fixnum) < Bignum < Flonum. Operations on two
+// fixnums are done in a long and only promoted to a Bignum when the result overflows an int,
+// and integral results are always demoted back to an Integer when they fit, so every integer
+// value has exactly one representation.
+class Numbers {
+  static LispNumber add(LispNumber a, LispNumber b) {
+    if (a instanceof Integer m && b instanceof Integer n) {
+      return fromLong((long) m.integer + n.integer);
+    } else if (a instanceof Flonum || b instanceof Flonum) {
+      return new Flonum(toDouble(a) + toDouble(b));
+    } else {
+      return normalize(toBig(a).add(toBig(b)));
+    }
+  }
+
+  static LispNumber sub(LispNumber a, LispNumber b) {
+    if (a instanceof Integer m && b instanceof Integer n) {
+      return fromLong((long) m.integer - n.integer);
+    } else if (a instanceof Flonum || b instanceof Flonum) {
+      return new Flonum(toDouble(a) - toDouble(b));
+    } else {
+      return normalize(toBig(a).subtract(toBig(b)));
+    }
+  }
+
+  static LispNumber mul(LispNumber a, LispNumber b) {
+    if (a instanceof Integer m && b instanceof Integer n) {
+      return fromLong((long) m.integer * n.integer);
+    } else if (a instanceof Flonum || b instanceof Flonum) {
+      return new Flonum(toDouble(a) * toDouble(b));
+    } else {
+      return normalize(toBig(a).multiply(toBig(b)));
+    }
+  }
+
+  // integer division truncates, as it always has
+  static LispNumber div(LispNumber a, LispNumber b) {
+    if (a instanceof Flonum || b instanceof Flonum) {
+      return new Flonum(toDouble(a) / toDouble(b));
+    } else if (b instanceof Integer n && n.integer == 0) {
+      throw new Error("division by zero");
+    } else if (a instanceof Integer m && b instanceof Integer n) {
+      return fromLong((long) m.integer / n.integer);
+    } else {
+      return normalize(toBig(a).divide(toBig(b)));
+    }
+  }
+
+  static int compare(LispNumber a, LispNumber b) {
+    if (a instanceof Integer m && b instanceof Integer n) {
+      return java.lang.Integer.compare(m.integer, n.integer);
+    } else if (a instanceof Flonum || b instanceof Flonum) {
+      return Double.compare(toDouble(a), toDouble(b));
+    } else {
+      return toBig(a).compareTo(toBig(b));
+    }
+  }
+
+  static LispNumber fromLong(long n) {
+    if ((int) n == n) {
+      return Integer.valueOf((int) n);
+    }
+    return new Bignum(BigInteger.valueOf(n));
+  }
+
+  static LispNumber normalize(BigInteger n) {
+    if (n.bitLength() < 32) {
+      return Integer.valueOf(n.intValue());
+    }
+    return new Bignum(n);
+  }
+
+  private static BigInteger toBig(LispNumber n) {
+    return switch (n) {
+      case Integer m -> BigInteger.valueOf(m.integer);
+      case Bignum m -> m.bignum;
+      case Flonum m -> throw new Error(String.format("%s is not an integer", m));
+    };
+  }
+
+  private static double toDouble(LispNumber n) {
+    return switch (n) {
+      case Integer m -> m.integer;
+      case Bignum m -> m.bignum.doubleValue();
+      case Flonum m -> m.flonum;
+    };
+  }
+}
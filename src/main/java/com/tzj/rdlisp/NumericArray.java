@@ -0,0 +1,396 @@
+package com.tzj.rdlisp;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+// A fixed-length array of unboxed ints, longs or doubles - a million ints take 4MB, where a list
+// of them takes a cons and often an Integer each. The bulk operations (sum, dot, map, sort) loop
+// over the Java array itself, allocating nothing per element. A slice is a view of a range of
+// another array, and shares its elements.
+//
+// Integer arithmetic is exact, as everywhere else: a sum or dot product too large for a long is
+// a Bignum, and an element that would overflow its array is an error rather than wrapping.
+final class NumericArray extends LispObject implements SelfEvaluating {
+  enum Kind {
+    INT,
+    LONG,
+    DOUBLE;
+
+    String typeName() {
+      return name().toLowerCase() + "-array";
+    }
+  }
+
+  // the operations `array-map!` takes, named by the builtin functions
+  enum Op {
+    ADD,
+    SUB,
+    MUL,
+    DIV
+  }
+
+  // how many elements toString shows
+  private static final int PRINTED = 16;
+
+  final Kind kind;
+  // only the array of `kind` is set
+  private final int[] ints;
+  private final long[] longs;
+  private final double[] doubles;
+  private final int offset;
+  final int length;
+
+  private NumericArray(
+      final Kind kind,
+      final int[] ints,
+      final long[] longs,
+      final double[] doubles,
+      final int offset,
+      final int length) {
+    this.kind = kind;
+    this.ints = ints;
+    this.longs = longs;
+    this.doubles = doubles;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  // `length` zeros
+  static NumericArray of(Kind kind, int length) {
+    return switch (kind) {
+      case INT -> new NumericArray(kind, new int[length], null, null, 0, length);
+      case LONG -> new NumericArray(kind, null, new long[length], null, 0, length);
+      case DOUBLE -> new NumericArray(kind, null, null, new double[length], 0, length);
+    };
+  }
+
+  // the elements of `lst`, which must be a proper list of numbers that fit `kind`
+  static NumericArray fromList(Kind kind, LispObject lst) {
+    var items = Parallel.elements(lst, kind.typeName());
+    var array = of(kind, items.length);
+    for (int i = 0; i < items.length; i++) {
+      array.set(i, items[i], kind.typeName());
+    }
+    return array;
+  }
+
+  LispObject toList() {
+    var lst = new ListBuilder();
+    for (int i = 0; i < length; i++) {
+      lst.add(get(i));
+    }
+    return lst.build();
+  }
+
+  // `index` as an index into this array, which it must be in range for
+  int index(LispObject index, String name) {
+    if (index instanceof Integer n && n.integer >= 0 && n.integer < length) {
+      return n.integer;
+    }
+    throw new Error(
+        String.format(
+            "index %s passed to `%s` is out of range for an array of length %d",
+            index, name, length));
+  }
+
+  LispObject get(int i) {
+    return switch (kind) {
+      case INT -> Integer.valueOf(ints[offset + i]);
+      case LONG -> Numbers.fromLong(longs[offset + i]);
+      case DOUBLE -> new Flonum(doubles[offset + i]);
+    };
+  }
+
+  void set(int i, LispObject value, String name) {
+    switch (kind) {
+      case INT -> ints[offset + i] = toInt(value, name);
+      case LONG -> longs[offset + i] = toLong(value, name);
+      case DOUBLE -> doubles[offset + i] = toDouble(value, name);
+    }
+  }
+
+  // the elements from `from` up to `to`, sharing them with this array
+  NumericArray slice(int from, int to) {
+    if (from < 0 || to < from || to > length) {
+      throw new Error(
+          String.format(
+              "slice from %d to %d is out of range for an array of length %d", from, to, length));
+    }
+    return new NumericArray(kind, ints, longs, doubles, offset + from, to - from);
+  }
+
+  /// bulk operations
+
+  LispNumber sum() {
+    var end = offset + length;
+    switch (kind) {
+      case INT -> {
+        // fewer than 2^31 ints cannot overflow a long
+        long sum = 0;
+        for (int i = offset; i < end; i++) {
+          sum += ints[i];
+        }
+        return Numbers.fromLong(sum);
+      }
+
+      case LONG -> {
+        long sum = 0;
+        try {
+          for (int i = offset; i < end; i++) {
+            sum = Math.addExact(sum, longs[i]);
+          }
+          return Numbers.fromLong(sum);
+        } catch (ArithmeticException overflow) {
+          var big = BigInteger.ZERO;
+          for (int i = offset; i < end; i++) {
+            big = big.add(BigInteger.valueOf(longs[i]));
+          }
+          return Numbers.normalize(big);
+        }
+      }
+
+      default -> {
+        double sum = 0;
+        for (int i = offset; i < end; i++) {
+          sum += doubles[i];
+        }
+        return new Flonum(sum);
+      }
+    }
+  }
+
+  // a double if either array holds doubles, else exact
+  LispNumber dot(NumericArray other) {
+    if (other.length != length) {
+      throw new Error(
+          String.format(
+              "`array-dot` expects arrays of the same length, but got %d and %d",
+              length, other.length));
+    }
+
+    if (kind == Kind.DOUBLE || other.kind == Kind.DOUBLE) {
+      double sum = 0;
+      if (kind == Kind.DOUBLE && other.kind == Kind.DOUBLE) {
+        for (int i = 0; i < length; i++) {
+          sum += doubles[offset + i] * other.doubles[other.offset + i];
+        }
+      } else {
+        for (int i = 0; i < length; i++) {
+          sum += doubleAt(i) * other.doubleAt(i);
+        }
+      }
+      return new Flonum(sum);
+    }
+
+    long sum = 0;
+    try {
+      if (kind == Kind.INT && other.kind == Kind.INT) {
+        for (int i = 0; i < length; i++) {
+          sum = Math.addExact(sum, (long) ints[offset + i] * other.ints[other.offset + i]);
+        }
+      } else {
+        for (int i = 0; i < length; i++) {
+          sum = Math.addExact(sum, Math.multiplyExact(longAt(i), other.longAt(i)));
+        }
+      }
+      return Numbers.fromLong(sum);
+    } catch (ArithmeticException overflow) {
+      var big = BigInteger.ZERO;
+      for (int i = 0; i < length; i++) {
+        var product = BigInteger.valueOf(longAt(i)).multiply(BigInteger.valueOf(other.longAt(i)));
+        big = big.add(product);
+      }
+      return Numbers.normalize(big);
+    }
+  }
+
+  // replaces each element x with `x op operand` - or, if `operand` is an array of the same length,
+  // with `x op y` for the corresponding element y. An overflow stops it where it happened.
+  //
+  // An operand that is a slice of the same storage, starting before this one, would have elements
+  // overwritten before they were read - so this is then walked from the end.
+  void map(Op op, LispObject operand) {
+    var array = operand instanceof NumericArray other ? other : null;
+    if (array != null) {
+      if (array.length != length) {
+        throw new Error(
+            String.format(
+                "`array-map!` expects arrays of the same length, but got %d and %d",
+                length, array.length));
+      }
+      if (array.kind.ordinal() > kind.ordinal()) {
+        throw new Error(
+            String.format(
+                "`array-map!` cannot store the elements of a %s in a %s",
+                array.kind.typeName(), kind.typeName()));
+      }
+    }
+    var backwards = array != null && array.sharesStorage(this) && array.offset < offset;
+
+    try {
+      switch (kind) {
+        case INT -> {
+          if (array == null) {
+            var n = toInt(operand, "array-map!");
+            for (int i = offset; i < offset + length; i++) {
+              ints[i] = apply(op, ints[i], n);
+            }
+          } else {
+            for (int k = 0; k < length; k++) {
+              var i = backwards ? length - 1 - k : k;
+              ints[offset + i] = apply(op, ints[offset + i], array.ints[array.offset + i]);
+            }
+          }
+        }
+
+        case LONG -> {
+          if (array == null) {
+            var n = toLong(operand, "array-map!");
+            for (int i = offset; i < offset + length; i++) {
+              longs[i] = apply(op, longs[i], n);
+            }
+          } else {
+            for (int k = 0; k < length; k++) {
+              var i = backwards ? length - 1 - k : k;
+              longs[offset + i] = apply(op, longs[offset + i], array.longAt(i));
+            }
+          }
+        }
+
+        case DOUBLE -> {
+          if (array == null) {
+            var n = toDouble(operand, "array-map!");
+            for (int i = offset; i < offset + length; i++) {
+              doubles[i] = apply(op, doubles[i], n);
+            }
+          } else {
+            for (int k = 0; k < length; k++) {
+              var i = backwards ? length - 1 - k : k;
+              doubles[offset + i] = apply(op, doubles[offset + i], array.doubleAt(i));
+            }
+          }
+        }
+      }
+    } catch (ArithmeticException err) {
+      throw new Error(
+          String.format(
+              "`array-map!` overflowed an element of an %s - %s",
+              kind.typeName(), err.getMessage()));
+    }
+  }
+
+  private boolean sharesStorage(NumericArray other) {
+    return switch (kind) {
+      case INT -> ints == other.ints;
+      case LONG -> longs == other.longs;
+      case DOUBLE -> doubles == other.doubles;
+    };
+  }
+
+  void sort() {
+    switch (kind) {
+      case INT -> Arrays.sort(ints, offset, offset + length);
+      case LONG -> Arrays.sort(longs, offset, offset + length);
+      case DOUBLE -> Arrays.sort(doubles, offset, offset + length);
+    }
+  }
+
+  private static int apply(Op op, int a, int b) {
+    return switch (op) {
+      case ADD -> Math.addExact(a, b);
+      case SUB -> Math.subtractExact(a, b);
+      case MUL -> Math.multiplyExact(a, b);
+      case DIV -> {
+        if (b == 0) {
+          throw new Error("division by zero");
+        }
+        if (a == java.lang.Integer.MIN_VALUE && b == -1) {
+          throw new ArithmeticException("integer overflow");
+        }
+        yield a / b;
+      }
+    };
+  }
+
+  private static long apply(Op op, long a, long b) {
+    return switch (op) {
+      case ADD -> Math.addExact(a, b);
+      case SUB -> Math.subtractExact(a, b);
+      case MUL -> Math.multiplyExact(a, b);
+      case DIV -> {
+        if (b == 0) {
+          throw new Error("division by zero");
+        }
+        if (a == Long.MIN_VALUE && b == -1) {
+          throw new ArithmeticException("long overflow");
+        }
+        yield a / b;
+      }
+    };
+  }
+
+  private static double apply(Op op, double a, double b) {
+    return switch (op) {
+      case ADD -> a + b;
+      case SUB -> a - b;
+      case MUL -> a * b;
+      case DIV -> a / b;
+    };
+  }
+
+  /// elements of any kind, widened
+
+  long longAt(int i) {
+    return kind == Kind.INT ? ints[offset + i] : longs[offset + i];
+  }
+
+  double doubleAt(int i) {
+    return switch (kind) {
+      case INT -> ints[offset + i];
+      case LONG -> longs[offset + i];
+      case DOUBLE -> doubles[offset + i];
+    };
+  }
+
+  private static int toInt(LispObject value, String name) {
+    if (value instanceof Integer n) {
+      return n.integer;
+    }
+    throw new Error(String.format("%s passed to `%s` does not fit an int-array", value, name));
+  }
+
+  private static long toLong(LispObject value, String name) {
+    if (value instanceof Integer n) {
+      return n.integer;
+    }
+    if (value instanceof Bignum n && n.bignum.bitLength() < 64) {
+      return n.bignum.longValue();
+    }
+    throw new Error(String.format("%s passed to `%s` does not fit a long-array", value, name));
+  }
+
+  private static double toDouble(LispObject value, String name) {
+    return switch (value) {
+      case Integer n -> n.integer;
+      case Bignum n -> n.bignum.doubleValue();
+      case Flonum n -> n.flonum;
+      default -> throw new Error(
+          String.format("%s passed to `%s` is not a number", value, name));
+    };
+  }
+
+  @Override
+  public String toString() {
+    var sb = new StringBuilder("<").append(kind.typeName()).append(">:<");
+    for (int i = 0; i < Math.min(length, PRINTED); i++) {
+      if (i > 0) {
+        sb.append(' ');
+      }
+      sb.append(get(i));
+    }
+    if (length > PRINTED) {
+      sb.append(String.format(" ... %d more", length - PRINTED));
+    }
+    return sb.append('>').toString();
+  }
+}
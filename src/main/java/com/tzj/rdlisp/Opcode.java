@@ -0,0 +1,68 @@
+package com.tzj.rdlisp;
+
+// the instruction set of the VM. An instruction is an opcode followed by its operands, all ints
+// in the same array. `k` operands index the chunk's constant pool.
+final class Opcode {
+  private Opcode() {}
+
+  // CONST k - push constants[k]
+  static final int CONST = 0;
+
+  // LOCAL depth slot - push a parameter of this or an enclosing frame
+  static final int LOCAL = 1;
+
+  // GLOBAL k - push the global binding of the GlobalRef constants[k]
+  static final int GLOBAL = 2;
+
+  // STORE_LOCAL depth slot - bind a parameter to the top of the stack, leaving it there
+  static final int STORE_LOCAL = 3;
+
+  // STORE_GLOBAL k - bind the symbol constants[k] to the top of the stack, leaving it there
+  static final int STORE_GLOBAL = 4;
+
+  // POP
+  static final int POP = 5;
+
+  // JUMP target
+  static final int JUMP = 6;
+
+  // JUMP_IF_FALSE target - pops the condition
+  static final int JUMP_IF_FALSE = 7;
+
+  // CLOSURE k - push a closure over the current frame of the LambdaNode constants[k]
+  static final int CLOSURE = 8;
+
+  // FUNCTION k - wrap the closure on top of the stack in a Function named constants[k]
+  static final int FUNCTION = 9;
+
+  // MACRO k - wrap the closure on top of the stack in a MacroFunction named constants[k]
+  static final int MACRO = 10;
+
+  // CALLEE k target tail - check the operator on top of the stack before the arguments are
+  // evaluated. A macro (defined after the call was compiled) expands the form constants[k]
+  // instead, and execution resumes at `target`, past the call.
+  static final int CALLEE = 11;
+
+  // CALL argc - pops the operator and argc arguments, pushes the result
+  static final int CALL = 12;
+
+  // TAILCALL argc - a CALL in tail position. A compiled closure replaces the current frame.
+  static final int TAILCALL = 13;
+
+  // MACRO_CALL k - the call to a macro described by the MacroSite constants[k]
+  static final int MACRO_CALL = 14;
+
+  // RETURN - returns the top of the stack
+  static final int RETURN = 15;
+
+  /// quasiquote templates - these mirror Evaluator.quasiQuote case by case
+
+  // LIST1 - replace the top of the stack with a list of it
+  static final int LIST1 = 16;
+
+  // APPEND - pops two lists, pushes them appended
+  static final int APPEND = 17;
+
+  // TEMPLATE_CONS - pops a head and a tail, pushes the head appended to or consed onto the tail
+  static final int TEMPLATE_CONS = 18;
+}
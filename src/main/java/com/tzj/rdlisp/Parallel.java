@@ -0,0 +1,241 @@
+package com.tzj.rdlisp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+// The work behind `pmap`, `pfilter` and `preduce` - the elements of a list are split into
+// ranges, and the function is applied to each range on a worker of a ForkJoinPool. That is the
+// common pool, unless the rdlisp.parallelism system property asks for a pool of its own of that
+// size, or an embedder sets one. The caller waits for the workers interruptibly, and an interrupt -
+// as of a session's timeout - stops them too.
+public final class Parallel {
+  private static volatile ForkJoinPool pool = defaultPool();
+
+  private Parallel() {}
+
+  public static ForkJoinPool pool() {
+    return pool;
+  }
+
+  public static void setPool(ForkJoinPool pool) {
+    Parallel.pool = pool;
+  }
+
+  private static ForkJoinPool defaultPool() {
+    var parallelism = java.lang.Integer.getInteger("rdlisp.parallelism", 0);
+    return parallelism > 0 ? new ForkJoinPool(parallelism) : ForkJoinPool.commonPool();
+  }
+
+  // the elements of `lst`, which must be a proper list
+  static LispObject[] elements(LispObject lst, String name) {
+    var count = 0;
+    var ptr = lst;
+    for (; ptr instanceof Cons cons; ptr = cons.cdr) {
+      count++;
+    }
+
+    if (!ptr.isNil()) {
+      throw new Error(String.format("%s passed to `%s` is not a list", ptr, name));
+    }
+
+    var array = new LispObject[count];
+    for (int i = 0; i < count; i++) {
+      var cons = (Cons) lst;
+      array[i] = cons.car;
+      lst = cons.cdr;
+    }
+    return array;
+  }
+
+  // `fn` applied to each of `items`, in order
+  static LispObject[] map(ApplicableExpression fn, LispObject[] items) {
+    var results = new LispObject[items.length];
+    var pool = Parallel.pool;
+    var job = new Job();
+    var grain = grain(pool, items.length);
+    await(job, pool.submit(new Map(job, fn, items, results, 0, items.length, grain)));
+    return results;
+  }
+
+  // `fn` folded over `items` from `init`, as by foldl - each range is folded from its first
+  // element, the ranges' results are combined with `fn`, and `init` with the whole of them, so
+  // `fn` must be associative
+  static LispObject reduce(ApplicableExpression fn, LispObject init, LispObject[] items) {
+    if (items.length == 0) {
+      return init;
+    }
+    var pool = Parallel.pool;
+    var job = new Job();
+    var grain = grain(pool, items.length);
+    var reduced = await(job, pool.submit(new Reduce(job, fn, items, 0, items.length, grain)));
+    return fn.apply2(init, reduced);
+  }
+
+  // the result of `task` - if the caller is interrupted while it waits, or a worker fails, the
+  // rest of the job is stopped
+  private static <T> T await(Job job, ForkJoinTask<T> task) {
+    try {
+      return task.get();
+    } catch (InterruptedException err) {
+      job.cancel();
+      throw new Error("evaluation interrupted");
+    } catch (ExecutionException err) {
+      job.cancel();
+      if (err.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      if (err.getCause() instanceof java.lang.Error cause) {
+        throw cause;
+      }
+      throw new RuntimeException(err.getCause());
+    }
+  }
+
+  // the size of range below which a task is not split further - a few ranges per worker
+  private static int grain(ForkJoinPool pool, int size) {
+    return Math.max(1, size / (pool.getParallelism() * 4));
+  }
+
+  // the workers running the tasks of one call, so that it can stop them - they are interrupted,
+  // which the evaluation on them notices at its next call, as the caller's evaluation would
+  private static final class Job {
+    // a worker is in here once for each of the job's tasks it is running
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean cancelled;
+
+    synchronized void enter() {
+      check();
+      workers.add(Thread.currentThread());
+    }
+
+    synchronized void exit() {
+      var worker = Thread.currentThread();
+      workers.remove(worker);
+      if (cancelled && !workers.contains(worker)) {
+        // an interrupt meant for this job must not end the next task the worker runs
+        Thread.interrupted();
+      }
+    }
+
+    synchronized void cancel() {
+      cancelled = true;
+      for (var worker : workers) {
+        worker.interrupt();
+      }
+    }
+
+    void check() {
+      if (cancelled) {
+        throw new Error("evaluation interrupted");
+      }
+    }
+  }
+
+  private static final class Map extends RecursiveAction {
+    private final Job job;
+    private final ApplicableExpression fn;
+    private final LispObject[] items;
+    private final LispObject[] results;
+    private final int from;
+    private final int to;
+    private final int grain;
+
+    Map(
+        final Job job,
+        final ApplicableExpression fn,
+        final LispObject[] items,
+        final LispObject[] results,
+        final int from,
+        final int to,
+        final int grain) {
+      this.job = job;
+      this.fn = fn;
+      this.items = items;
+      this.results = results;
+      this.from = from;
+      this.to = to;
+      this.grain = grain;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= grain) {
+        job.enter();
+        try {
+          for (int i = from; i < to; i++) {
+            job.check();
+            results[i] = fn.apply1(items[i]);
+          }
+        } finally {
+          job.exit();
+        }
+        return;
+      }
+
+      var mid = (from + to) >>> 1;
+      invokeAll(
+          new Map(job, fn, items, results, from, mid, grain),
+          new Map(job, fn, items, results, mid, to, grain));
+    }
+  }
+
+  // of a range that is never empty
+  private static final class Reduce extends RecursiveTask<LispObject> {
+    private final Job job;
+    private final ApplicableExpression fn;
+    private final LispObject[] items;
+    private final int from;
+    private final int to;
+    private final int grain;
+
+    Reduce(
+        final Job job,
+        final ApplicableExpression fn,
+        final LispObject[] items,
+        final int from,
+        final int to,
+        final int grain) {
+      this.job = job;
+      this.fn = fn;
+      this.items = items;
+      this.from = from;
+      this.to = to;
+      this.grain = grain;
+    }
+
+    @Override
+    protected LispObject compute() {
+      if (to - from <= grain) {
+        job.enter();
+        try {
+          var acc = items[from];
+          for (int i = from + 1; i < to; i++) {
+            job.check();
+            acc = fn.apply2(acc, items[i]);
+          }
+          return acc;
+        } finally {
+          job.exit();
+        }
+      }
+
+      var mid = (from + to) >>> 1;
+      var left = new Reduce(job, fn, items, from, mid, grain);
+      var right = new Reduce(job, fn, items, mid, to, grain);
+      left.fork();
+      var rightResult = right.compute();
+      var leftResult = left.join();
+      job.enter();
+      try {
+        return fn.apply2(leftResult, rightResult);
+      } finally {
+        job.exit();
+      }
+    }
+  }
+}
@@ -0,0 +1,332 @@
+package com.tzj.rdlisp;
+
+import java.util.Arrays;
+
+// An immutable map from keys to values, compared as by `eq?` - `assoc` and `dissoc` return a new
+// map, sharing all but O(log32 n) of its nodes with this one. The entries are in a hash array
+// mapped trie: each node is indexed by 5 bits of the key's hash, and holds only the slots in use,
+// in an array whose positions are found by counting the bits set in the node's bitmap. Keys with
+// the same hash share a collision node.
+//
+// Nothing is changed once constructed, and the fields are final, so a map can be shared between
+// threads without copying or locking. As for a HashTable, a key must not be changed while it is
+// in a map.
+final class PersistentMap extends LispObject implements SelfEvaluating {
+  private static final int BITS = 5;
+  private static final int MASK = (1 << BITS) - 1;
+
+  static final PersistentMap EMPTY = new PersistentMap(0, null);
+
+  final int count;
+  // null when empty
+  private final Node root;
+  // computed on first use - 0 until then
+  private int hash;
+
+  private PersistentMap(final int count, final Node root) {
+    this.count = count;
+    this.root = root;
+  }
+
+  // the value of `key`, or null if it has none
+  LispObject get(LispObject key) {
+    return root != null ? root.find(0, key.hashCode(), key) : null;
+  }
+
+  // the map with `key` bound to `value`
+  PersistentMap assoc(LispObject key, LispObject value) {
+    var added = new boolean[1];
+    var node = root != null ? root : BitmapNode.EMPTY;
+    var newRoot = node.assoc(0, key.hashCode(), key, value, added);
+    return newRoot == root ? this : new PersistentMap(added[0] ? count + 1 : count, newRoot);
+  }
+
+  // the map without `key`
+  PersistentMap dissoc(LispObject key) {
+    if (root == null) {
+      return this;
+    }
+    var newRoot = root.without(0, key.hashCode(), key);
+    if (newRoot == root) {
+      return this;
+    }
+    return newRoot != null ? new PersistentMap(count - 1, newRoot) : EMPTY;
+  }
+
+  // the entries, as a list of pairs `(key . value)`
+  LispObject entries() {
+    var lst = new ListBuilder();
+    if (root != null) {
+      root.entries(lst);
+    }
+    return lst.build();
+  }
+
+  /// the trie
+
+  private abstract static class Node {
+    abstract LispObject find(int shift, int hash, LispObject key);
+
+    // this node with `key` bound - or this node itself if it already was bound to `value`.
+    // `added` is set if the key was new.
+    abstract Node assoc(int shift, int hash, LispObject key, LispObject value, boolean[] added);
+
+    // this node without `key` - or this node itself if it had no `key`, or null if it is empty
+    abstract Node without(int shift, int hash, LispObject key);
+
+    abstract void entries(ListBuilder lst);
+  }
+
+  // `slots` holds a key and value for each bit set in `bitmap` - or, in place of a key, null,
+  // and a node for the keys whose hashes share those bits
+  private static final class BitmapNode extends Node {
+    static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+    private final int bitmap;
+    private final Object[] slots;
+
+    BitmapNode(final int bitmap, final Object[] slots) {
+      this.bitmap = bitmap;
+      this.slots = slots;
+    }
+
+    private static int bit(int shift, int hash) {
+      return 1 << ((hash >>> shift) & MASK);
+    }
+
+    // the position in `slots` of the key for `bit`
+    private int position(int bit) {
+      return 2 * java.lang.Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    @Override
+    LispObject find(int shift, int hash, LispObject key) {
+      var bit = bit(shift, hash);
+      if ((bitmap & bit) == 0) {
+        return null;
+      }
+      var i = position(bit);
+      if (slots[i] == null) {
+        return ((Node) slots[i + 1]).find(shift + BITS, hash, key);
+      }
+      return key.equals(slots[i]) ? (LispObject) slots[i + 1] : null;
+    }
+
+    @Override
+    Node assoc(int shift, int hash, LispObject key, LispObject value, boolean[] added) {
+      var bit = bit(shift, hash);
+      var i = position(bit);
+      if ((bitmap & bit) == 0) {
+        added[0] = true;
+        var newSlots = new Object[slots.length + 2];
+        System.arraycopy(slots, 0, newSlots, 0, i);
+        newSlots[i] = key;
+        newSlots[i + 1] = value;
+        System.arraycopy(slots, i, newSlots, i + 2, slots.length - i);
+        return new BitmapNode(bitmap | bit, newSlots);
+      }
+
+      var slotKey = (LispObject) slots[i];
+      var slotValue = slots[i + 1];
+      if (slotKey == null) {
+        var child = (Node) slotValue;
+        var newChild = child.assoc(shift + BITS, hash, key, value, added);
+        return newChild == child ? this : with(i + 1, newChild);
+      }
+      if (key.equals(slotKey)) {
+        return slotValue == value ? this : with(i + 1, value);
+      }
+
+      // another key whose hash shares these bits - both move down a level
+      added[0] = true;
+      var node = pair(shift + BITS, slotKey, (LispObject) slotValue, hash, key, value);
+      var newSlots = slots.clone();
+      newSlots[i] = null;
+      newSlots[i + 1] = node;
+      return new BitmapNode(bitmap, newSlots);
+    }
+
+    @Override
+    Node without(int shift, int hash, LispObject key) {
+      var bit = bit(shift, hash);
+      if ((bitmap & bit) == 0) {
+        return this;
+      }
+      var i = position(bit);
+      if (slots[i] == null) {
+        var child = (Node) slots[i + 1];
+        var newChild = child.without(shift + BITS, hash, key);
+        if (newChild == child) {
+          return this;
+        }
+        if (newChild != null) {
+          return with(i + 1, newChild);
+        }
+      } else if (!key.equals(slots[i])) {
+        return this;
+      }
+
+      if (bitmap == bit) {
+        return null;
+      }
+      var newSlots = new Object[slots.length - 2];
+      System.arraycopy(slots, 0, newSlots, 0, i);
+      System.arraycopy(slots, i + 2, newSlots, i, newSlots.length - i);
+      return new BitmapNode(bitmap & ~bit, newSlots);
+    }
+
+    @Override
+    void entries(ListBuilder lst) {
+      for (int i = 0; i < slots.length; i += 2) {
+        if (slots[i] == null) {
+          ((Node) slots[i + 1]).entries(lst);
+        } else {
+          lst.add(Util.makeCons((LispObject) slots[i], (LispObject) slots[i + 1]));
+        }
+      }
+    }
+
+    private BitmapNode with(int i, Object slot) {
+      var newSlots = slots.clone();
+      newSlots[i] = slot;
+      return new BitmapNode(bitmap, newSlots);
+    }
+
+    // a node, at `shift`, of two entries
+    private static Node pair(
+        int shift,
+        LispObject key1,
+        LispObject value1,
+        int hash2,
+        LispObject key2,
+        LispObject value2) {
+      var hash1 = key1.hashCode();
+      if (hash1 == hash2) {
+        return new CollisionNode(hash1, new LispObject[] {key1, value1, key2, value2});
+      }
+      var unused = new boolean[1];
+      return EMPTY
+          .assoc(shift, hash1, key1, value1, unused)
+          .assoc(shift, hash2, key2, value2, unused);
+    }
+  }
+
+  // entries whose keys all have the same hash, in pairs - searched in turn
+  private static final class CollisionNode extends Node {
+    private final int hash;
+    private final LispObject[] entries;
+
+    CollisionNode(final int hash, final LispObject[] entries) {
+      this.hash = hash;
+      this.entries = entries;
+    }
+
+    private int position(LispObject key) {
+      for (int i = 0; i < entries.length; i += 2) {
+        if (key.equals(entries[i])) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    LispObject find(int shift, int hash, LispObject key) {
+      var i = position(key);
+      return i >= 0 ? entries[i + 1] : null;
+    }
+
+    @Override
+    Node assoc(int shift, int hash, LispObject key, LispObject value, boolean[] added) {
+      if (hash != this.hash) {
+        // a key with another hash arrived here - this node moves down a level under a bitmap
+        var node = new BitmapNode(BitmapNode.bit(shift, this.hash), new Object[] {null, this});
+        return node.assoc(shift, hash, key, value, added);
+      }
+
+      var i = position(key);
+      if (i >= 0) {
+        if (entries[i + 1] == value) {
+          return this;
+        }
+        var newEntries = entries.clone();
+        newEntries[i + 1] = value;
+        return new CollisionNode(hash, newEntries);
+      }
+
+      added[0] = true;
+      var newEntries = Arrays.copyOf(entries, entries.length + 2);
+      newEntries[entries.length] = key;
+      newEntries[entries.length + 1] = value;
+      return new CollisionNode(hash, newEntries);
+    }
+
+    @Override
+    Node without(int shift, int hash, LispObject key) {
+      var i = position(key);
+      if (i < 0) {
+        return this;
+      }
+      if (entries.length == 2) {
+        return null;
+      }
+      var newEntries = new LispObject[entries.length - 2];
+      System.arraycopy(entries, 0, newEntries, 0, i);
+      System.arraycopy(entries, i + 2, newEntries, i, newEntries.length - i);
+      return new CollisionNode(hash, newEntries);
+    }
+
+    @Override
+    void entries(ListBuilder lst) {
+      for (int i = 0; i < entries.length; i += 2) {
+        lst.add(Util.makeCons(entries[i], entries[i + 1]));
+      }
+    }
+  }
+
+  @Override
+  public String toString() {
+    var sb = new StringBuilder("<phash>:<");
+    var first = true;
+    for (var entries = entries(); entries instanceof Cons cons; entries = cons.cdr) {
+      if (!first) {
+        sb.append(' ');
+      }
+      first = false;
+      sb.append(cons.car);
+    }
+    return sb.append('>').toString();
+  }
+
+  @Override
+  public int hashCode() {
+    // racy, but every thread computes the same value - independent of the order of entries
+    var h = hash;
+    if (h == 0) {
+      for (var entries = entries(); entries instanceof Cons cons; entries = cons.cdr) {
+        var entry = (Cons) cons.car;
+        h += entry.car.hashCode() ^ entry.cdr.hashCode();
+      }
+      h = h == 0 ? 1 : h;
+      hash = h;
+    }
+    return h;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
+    if (!(o instanceof PersistentMap other) || other.count != count) {
+      return false;
+    }
+    for (var entries = entries(); entries instanceof Cons cons; entries = cons.cdr) {
+      var entry = (Cons) cons.car;
+      if (!entry.cdr.equals(other.get(entry.car))) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,247 @@
+package com.tzj.rdlisp;
+
+import java.util.Arrays;
+
+// An immutable vector - `conj`, `assoc` and `pop` return a new vector, sharing all but O(log32 n)
+// of its nodes with this one. The elements are in a trie of 32-way nodes, indexed by 5 bits of
+// the index at each level, except for the last (up to) 32, which are kept in a tail so that
+// appending is usually a copy of just the tail.
+//
+// Nothing is changed once constructed, and the fields are final, so a vector can be shared
+// between threads without copying or locking.
+final class PersistentVector extends LispObject implements SelfEvaluating {
+  private static final int BITS = 5;
+  private static final int WIDTH = 1 << BITS;
+  private static final int MASK = WIDTH - 1;
+  private static final int PRINTED = 16;
+
+  private static final Object[] EMPTY_NODE = new Object[WIDTH];
+  static final PersistentVector EMPTY =
+      new PersistentVector(0, BITS, EMPTY_NODE, new LispObject[0]);
+
+  final int count;
+  // of the root's children - a multiple of BITS
+  private final int shift;
+  // inner nodes hold nodes, and leaves elements
+  private final Object[] root;
+  private final LispObject[] tail;
+  // computed on first use - 0 until then
+  private int hash;
+
+  private PersistentVector(
+      final int count, final int shift, final Object[] root, final LispObject[] tail) {
+    this.count = count;
+    this.shift = shift;
+    this.root = root;
+    this.tail = tail;
+  }
+
+  static PersistentVector of(LispObject[] items) {
+    var vec = EMPTY;
+    for (var item : items) {
+      vec = vec.conj(item);
+    }
+    return vec;
+  }
+
+  // `index` as an index into this vector, which it must be in range for
+  int index(LispObject index, String name) {
+    if (index instanceof Integer n && n.integer >= 0 && n.integer < count) {
+      return n.integer;
+    }
+    throw new Error(
+        String.format(
+            "index %s passed to `%s` is out of range for a pvector of length %d",
+            index, name, count));
+  }
+
+  LispObject get(int i) {
+    return (LispObject) leaf(i)[i & MASK];
+  }
+
+  // the vector with `value` appended
+  PersistentVector conj(LispObject value) {
+    if (count - tailOffset() < WIDTH) {
+      var newTail = Arrays.copyOf(tail, tail.length + 1);
+      newTail[tail.length] = value;
+      return new PersistentVector(count + 1, shift, root, newTail);
+    }
+
+    // the tail is full - it becomes a leaf of the trie, which may need another level
+    Object[] newRoot;
+    var newShift = shift;
+    if ((count >>> BITS) > (1 << shift)) {
+      newRoot = new Object[WIDTH];
+      newRoot[0] = root;
+      newRoot[1] = path(shift, tail);
+      newShift += BITS;
+    } else {
+      newRoot = pushTail(shift, root, tail);
+    }
+    return new PersistentVector(count + 1, newShift, newRoot, new LispObject[] {value});
+  }
+
+  // the vector with the element at `i` replaced by `value`
+  PersistentVector assoc(int i, LispObject value) {
+    if (i >= tailOffset()) {
+      var newTail = tail.clone();
+      newTail[i & MASK] = value;
+      return new PersistentVector(count, shift, root, newTail);
+    }
+    return new PersistentVector(count, shift, assoc(shift, root, i, value), tail);
+  }
+
+  // the vector without its last element
+  PersistentVector pop() {
+    if (count == 1) {
+      return EMPTY;
+    }
+    if (count - tailOffset() > 1) {
+      return new PersistentVector(count - 1, shift, root, Arrays.copyOf(tail, tail.length - 1));
+    }
+
+    // the tail is emptied - the last leaf of the trie becomes it
+    var leaf = leaf(count - 2);
+    var newTail = new LispObject[WIDTH];
+    for (int i = 0; i < WIDTH; i++) {
+      newTail[i] = (LispObject) leaf[i];
+    }
+    var newRoot = popTail(shift, root);
+    var newShift = shift;
+    if (newRoot == null) {
+      newRoot = EMPTY_NODE;
+    }
+    if (shift > BITS && newRoot[1] == null) {
+      newRoot = (Object[]) newRoot[0];
+      newShift -= BITS;
+    }
+    return new PersistentVector(count - 1, newShift, newRoot, newTail);
+  }
+
+  LispObject toList() {
+    var lst = new ListBuilder();
+    for (int i = 0; i < count; i++) {
+      lst.add(get(i));
+    }
+    return lst.build();
+  }
+
+  /// the trie
+
+  // the index of the first element in the tail
+  private int tailOffset() {
+    return count < WIDTH ? 0 : ((count - 1) >>> BITS) << BITS;
+  }
+
+  // the leaf, or tail, holding element `i`
+  private Object[] leaf(int i) {
+    if (i >= tailOffset()) {
+      return tail;
+    }
+    var node = root;
+    for (int level = shift; level > 0; level -= BITS) {
+      node = (Object[]) node[(i >>> level) & MASK];
+    }
+    return node;
+  }
+
+  // a copy of `parent`, at `level`, with the full tail added as its last leaf
+  private Object[] pushTail(int level, Object[] parent, LispObject[] leaf) {
+    var node = parent.clone();
+    var child = ((count - 1) >>> level) & MASK;
+    if (level == BITS) {
+      node[child] = leaf;
+    } else if (parent[child] != null) {
+      node[child] = pushTail(level - BITS, (Object[]) parent[child], leaf);
+    } else {
+      node[child] = path(level - BITS, leaf);
+    }
+    return node;
+  }
+
+  // `leaf`, under nodes down from `level`
+  private static Object[] path(int level, Object[] leaf) {
+    if (level == 0) {
+      return leaf;
+    }
+    var node = new Object[WIDTH];
+    node[0] = path(level - BITS, leaf);
+    return node;
+  }
+
+  private static Object[] assoc(int level, Object[] parent, int i, LispObject value) {
+    var node = parent.clone();
+    if (level == 0) {
+      node[i & MASK] = value;
+    } else {
+      var child = (i >>> level) & MASK;
+      node[child] = assoc(level - BITS, (Object[]) parent[child], i, value);
+    }
+    return node;
+  }
+
+  // a copy of `parent`, at `level`, without its last leaf - or null if that leaves it empty
+  private Object[] popTail(int level, Object[] parent) {
+    var child = ((count - 2) >>> level) & MASK;
+    if (level > BITS) {
+      var newChild = popTail(level - BITS, (Object[]) parent[child]);
+      if (newChild == null && child == 0) {
+        return null;
+      }
+      var node = parent.clone();
+      node[child] = newChild;
+      return node;
+    }
+    if (child == 0) {
+      return null;
+    }
+    var node = parent.clone();
+    node[child] = null;
+    return node;
+  }
+
+  @Override
+  public String toString() {
+    var sb = new StringBuilder("<pvector>:<");
+    for (int i = 0; i < Math.min(count, PRINTED); i++) {
+      if (i > 0) {
+        sb.append(' ');
+      }
+      sb.append(get(i));
+    }
+    if (count > PRINTED) {
+      sb.append(String.format(" ... %d more", count - PRINTED));
+    }
+    return sb.append('>').toString();
+  }
+
+  @Override
+  public int hashCode() {
+    // racy, but every thread computes the same value
+    var h = hash;
+    if (h == 0) {
+      h = 1;
+      for (int i = 0; i < count; i++) {
+        h = 31 * h + get(i).hashCode();
+      }
+      hash = h;
+    }
+    return h;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o == this) {
+      return true;
+    }
+    if (!(o instanceof PersistentVector other) || other.count != count) {
+      return false;
+    }
+    for (int i = 0; i < count; i++) {
+      if (!get(i).equals(other.get(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
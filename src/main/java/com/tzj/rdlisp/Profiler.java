@@ -0,0 +1,394 @@
+package com.tzj.rdlisp;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+// A profiler for Lisp code, started with `(profile-start)` and stopped with `(profile-report)`.
+// Each thread evaluating Lisp keeps a shadow stack of the functions, macros and builtins it is
+// in: the engines push a function when calling it, replace the top of the stack on a tail call,
+// and pop back to where they began when they return - see mark, call and unwind.
+//
+// In the default, counting mode, each function popped is charged a call, the time and conses
+// spent while it was on the stack (inclusive - counted once for recursive calls) and those not
+// spent in its callees (exclusive). In sampling mode calls measure nothing; instead a thread
+// samples every stack each `rdlisp.profile.interval` microseconds (1000 by default), and the
+// report counts how often each function was on a stack, and on top. The samples can also be
+// written out as collapsed stacks (`F;G;H 12` per line) for flame graph tools.
+//
+// While profiling, global functions the Jit had compiled are interpreted again, and none is
+// compiled, so that every call is seen. Calls made by builtins to other builtins, as by
+// `(map car ...)`, are not.
+public final class Profiler {
+  public enum Mode {
+    COUNT,
+    SAMPLE
+  }
+
+  private static final long INTERVAL =
+      java.lang.Long.getLong("rdlisp.profile.interval", 1000) * 1000;
+
+  // checked on every call, so profiling costs a read of this while it is off
+  static volatile boolean enabled;
+
+  private static volatile Mode mode = Mode.COUNT;
+  // bumped by each start - a thread's stack from an earlier one is reset on first use
+  private static volatile int generation;
+  private static final ConcurrentLinkedQueue<Stack> stacks = new ConcurrentLinkedQueue<>();
+  private static final ThreadLocal<Stack> stack = ThreadLocal.withInitial(Stack::new);
+
+  // sampling mode - written only by the sampler thread, and read once it has stopped
+  private static Thread sampler;
+  private static long samples;
+  private static final Map<String, long[]> sampled = new HashMap<>();
+  private static final Map<String, long[]> collapsed = new HashMap<>();
+
+  private Profiler() {}
+
+  public static synchronized void start(Mode mode) {
+    stop();
+    Profiler.mode = mode;
+    generation++;
+    stacks.clear();
+    samples = 0;
+    sampled.clear();
+    collapsed.clear();
+
+    for (var global : List.of(Environment.getInitEnv(), Environment.current())) {
+      for (var definition : global.definitions().entrySet()) {
+        if (definition.getValue() instanceof CompiledFunction compiled) {
+          global.rebindGlobal(definition.getKey(), compiled, compiled.function);
+        }
+      }
+    }
+
+    enabled = true;
+    if (mode == Mode.SAMPLE) {
+      sampler = new Thread(Profiler::sample, "rdlisp-profiler");
+      sampler.setDaemon(true);
+      sampler.start();
+    }
+  }
+
+  public static synchronized void stop() {
+    if (!enabled) {
+      return;
+    }
+    enabled = false;
+
+    if (sampler != null) {
+      sampler.interrupt();
+      try {
+        sampler.join();
+      } catch (InterruptedException err) {
+        Thread.currentThread().interrupt();
+      }
+      sampler = null;
+    }
+
+    // functions that reached the Jit's threshold while profiling count towards it again
+    for (var global : List.of(Environment.getInitEnv(), Environment.current())) {
+      for (var value : global.definitions().values()) {
+        if (value instanceof Function fn) {
+          fn.lambda().resetCalls();
+        }
+      }
+    }
+  }
+
+  /// the shadow stack
+
+  // a cons was allocated - charged to the functions on this thread's stack
+  static void cons() {
+    if (mode == Mode.COUNT) {
+      current().allocated++;
+    }
+  }
+
+  // the depth of this thread's stack - an engine notes it before making calls, to pass to call
+  // and unwind
+  static int mark() {
+    return current().depth;
+  }
+
+  // `fn` is being called - pushed, or replacing the top of the stack if that was pushed since
+  // `mark`, which makes this a tail call
+  static void call(ApplicableExpression fn, int mark) {
+    var profiled = profiled(fn);
+    if (profiled == null) {
+      return;
+    }
+
+    var stack = current();
+    if (stack.depth > mark) {
+      stack.pop();
+    }
+    stack.push(profiled);
+  }
+
+  // pops back to `mark`
+  static void unwind(int mark) {
+    var stack = current();
+    while (stack.depth > mark) {
+      stack.pop();
+    }
+  }
+
+  // makes `call` - a call of `fn` that goes around the engines - on the stack
+  static LispObject profile(ApplicableExpression fn, Supplier<LispObject> call) {
+    var mark = mark();
+    call(fn, mark);
+    try {
+      return call.get();
+    } finally {
+      unwind(mark);
+    }
+  }
+
+  // what a call of `fn` is charged to - null for anonymous lambdas, which are not profiled
+  private static ApplicableExpression profiled(ApplicableExpression fn) {
+    return switch (fn) {
+      case LambdaExpression lambda -> lambda.owner;
+      case CompiledFunction compiled -> compiled.function;
+      default -> fn;
+    };
+  }
+
+  private static Stack current() {
+    var stack = Profiler.stack.get();
+    if (stack.generation != generation) {
+      stack.reset(generation);
+      stacks.add(stack);
+    }
+    return stack;
+  }
+
+  private static final class Stats {
+    long calls;
+    long time;
+    long selfTime;
+    long conses;
+    long selfConses;
+    // activations on the stack - inclusive costs are only charged to the outermost
+    int active;
+  }
+
+  private static final class Stack {
+    private int generation = -1;
+    private ApplicableExpression[] fns = new ApplicableExpression[64];
+    // on entry, the time and the conses allocated so far
+    private long[] time = new long[64];
+    private long[] conses = new long[64];
+    // the time and conses charged to callees
+    private long[] childTime = new long[64];
+    private long[] childConses = new long[64];
+    // read without synchronization by the sampler, which may see a stack a little out of date
+    private int depth;
+    // conses allocated by this thread while profiling
+    private long allocated;
+    private final Map<ApplicableExpression, Stats> stats = new IdentityHashMap<>();
+
+    void reset(int generation) {
+      this.generation = generation;
+      Arrays.fill(fns, null);
+      depth = 0;
+      stats.clear();
+    }
+
+    void push(ApplicableExpression fn) {
+      if (depth == fns.length) {
+        var size = depth * 2;
+        time = Arrays.copyOf(time, size);
+        conses = Arrays.copyOf(conses, size);
+        childTime = Arrays.copyOf(childTime, size);
+        childConses = Arrays.copyOf(childConses, size);
+        fns = Arrays.copyOf(fns, size);
+      }
+
+      if (mode == Mode.COUNT) {
+        stats.computeIfAbsent(fn, f -> new Stats()).active++;
+        childTime[depth] = 0;
+        childConses[depth] = 0;
+        conses[depth] = allocated;
+        time[depth] = System.nanoTime();
+      }
+      fns[depth] = fn;
+      depth++;
+    }
+
+    void pop() {
+      var top = --depth;
+      var fn = fns[top];
+      fns[top] = null;
+      if (mode != Mode.COUNT) {
+        return;
+      }
+
+      var elapsed = System.nanoTime() - time[top];
+      var allocated = this.allocated - conses[top];
+      var stats = this.stats.get(fn);
+      if (stats == null) {
+        // pushed before a switch of modes
+        return;
+      }
+      stats.calls++;
+      stats.selfTime += elapsed - childTime[top];
+      stats.selfConses += allocated - childConses[top];
+      if (--stats.active == 0) {
+        stats.time += elapsed;
+        stats.conses += allocated;
+      }
+
+      if (top > 0) {
+        childTime[top - 1] += elapsed;
+        childConses[top - 1] += allocated;
+      }
+    }
+  }
+
+  /// sampling
+
+  private static void sample() {
+    while (!Thread.currentThread().isInterrupted()) {
+      LockSupport.parkNanos(INTERVAL);
+      samples++;
+
+      for (var stack : stacks) {
+        var fns = stack.fns;
+        var depth = Math.min(stack.depth, fns.length);
+        var path = new StringBuilder();
+        var seen = new HashSet<String>();
+        String top = null;
+        for (int i = 0; i < depth; i++) {
+          var fn = fns[i];
+          if (fn == null) {
+            continue;
+          }
+
+          top = name(fn);
+          if (!path.isEmpty()) {
+            path.append(';');
+          }
+          path.append(top);
+          if (seen.add(top)) {
+            sampled.computeIfAbsent(top, name -> new long[2])[0]++;
+          }
+        }
+
+        if (top != null) {
+          sampled.get(top)[1]++;
+          collapsed.computeIfAbsent(path.toString(), key -> new long[1])[0]++;
+        }
+      }
+    }
+  }
+
+  /// reports
+
+  // stops profiling, and prints what it found
+  public static synchronized void report(PrintStream out) {
+    stop();
+    if (mode == Mode.SAMPLE) {
+      reportSamples(out);
+    } else {
+      reportCounts(out);
+    }
+  }
+
+  // stops profiling, and writes the samples as collapsed stacks to `path`
+  public static synchronized void writeCollapsed(Path path) throws IOException {
+    stop();
+    if (mode != Mode.SAMPLE) {
+      throw new Error("collapsed stacks are only kept in sampling mode - (profile-start 'sample)");
+    }
+
+    var lines = new ArrayList<String>();
+    for (var entry : new TreeMap<>(collapsed).entrySet()) {
+      lines.add(entry.getKey() + " " + entry.getValue()[0]);
+    }
+    Files.write(path, lines);
+  }
+
+  private static void reportCounts(PrintStream out) {
+    // merged across threads, and across redefinitions of the same name
+    var totals = new HashMap<String, Stats>();
+    for (var stack : stacks) {
+      for (var entry : stack.stats.entrySet()) {
+        var stats = entry.getValue();
+        var total = totals.computeIfAbsent(name(entry.getKey()), name -> new Stats());
+        total.calls += stats.calls;
+        total.time += stats.time;
+        total.selfTime += stats.selfTime;
+        total.conses += stats.conses;
+        total.selfConses += stats.selfConses;
+      }
+    }
+
+    var rows = new ArrayList<>(totals.entrySet());
+    rows.sort((a, b) -> java.lang.Long.compare(b.getValue().selfTime, a.getValue().selfTime));
+
+    out.printf(
+        "%12s %12s %12s %12s %12s  %s%n",
+        "calls", "total ms", "self ms", "conses", "self conses", "function");
+    for (var row : rows) {
+      var stats = row.getValue();
+      if (stats.calls == 0) {
+        // still running - only the call of profile-report itself
+        continue;
+      }
+      out.printf(
+          "%12d %12.3f %12.3f %12d %12d  %s%n",
+          stats.calls,
+          stats.time / 1e6,
+          stats.selfTime / 1e6,
+          stats.conses,
+          stats.selfConses,
+          row.getKey());
+    }
+  }
+
+  private static void reportSamples(PrintStream out) {
+    var rows = new ArrayList<>(sampled.entrySet());
+    rows.sort((a, b) -> java.lang.Long.compare(b.getValue()[1], a.getValue()[1]));
+
+    out.printf("%d samples, every %dus%n", samples, INTERVAL / 1000);
+    out.printf("%12s %12s  %s%n", "total", "self", "function");
+    for (var row : rows) {
+      out.printf("%12d %12d  %s%n", row.getValue()[0], row.getValue()[1], row.getKey());
+    }
+  }
+
+  private static String name(ApplicableExpression fn) {
+    return switch (fn) {
+      case Function function -> function.name.sym;
+      case MacroFunction macro -> macro.name.sym;
+      default -> {
+        var name = Builtins.names.get(fn);
+        yield name != null ? name.sym : fn.toString();
+      }
+    };
+  }
+
+  // the names of the builtins, by identity - loaded on first use
+  private static final class Builtins {
+    static final Map<LispObject, Symbol> names = new IdentityHashMap<>();
+
+    static {
+      for (var builtin : Environment.builtins().entrySet()) {
+        names.put(builtin.getValue(), builtin.getKey());
+      }
+    }
+  }
+}
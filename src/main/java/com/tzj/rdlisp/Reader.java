@@ -1,9 +1,13 @@
 package com.tzj.rdlisp;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
-public class Reader {
+// Reads forms one at a time, pulling tokens from the Lexer only as they are needed - so a form
+// can be evaluated before the rest of its source has even been scanned.
+public class Reader implements Iterator<LispObject> {
   private Lexer lexer;
   private Token currTok;
 
@@ -26,7 +30,13 @@ public class Reader {
           throw new Error("illegal dotted pair - more forms after cdr element");
         }
         advance();
-        return Util.reverse(Util.makeCons(cdr, form));
+        if (!(form instanceof Cons last)) {
+          throw new Error("illegal dotted pair - no car element");
+        }
+        // reversing in place makes `form`'s first cell the last
+        var lst = Util.reverse(form);
+        last.cdr = cdr;
+        return lst;
       }
       form = Util.makeCons(readForm(), form);
     }
@@ -49,6 +59,12 @@ public class Reader {
         yield integer;
       }
 
+      case Float -> {
+        var flonum = Util.makeFloat(currTok.spelling());
+        advance();
+        yield flonum;
+      }
+
       case AndRest -> {
         advance();
         var form = readForm();
@@ -95,20 +111,55 @@ public class Reader {
         yield readList();
       }
 
+      case VectorOpen -> {
+        advance();
+        var items = readList();
+        var end = items;
+        while (end instanceof Cons cons) {
+          end = cons.cdr;
+        }
+        if (!end.isNil()) {
+          throw new Error("illegal dotted pair in a vector");
+        }
+        yield new Vector(Util.toArray(items));
+      }
+
+      case HashOpen -> {
+        advance();
+        var table = new HashTable();
+        for (var entries = readList(); entries instanceof Cons cons; entries = cons.cdr) {
+          if (!(cons.car instanceof Cons entry)) {
+            throw new Error(String.format("hash table entry %s is not a pair", cons.car));
+          }
+          table.put(entry.car, entry.cdr);
+        }
+        yield table;
+      }
+
       case RightParen -> throw new Error("unmatched parenthesis");
 
       default -> throw new Error(String.format("invalid token: %s", currTok));
     };
   }
 
+  @Override
+  public boolean hasNext() {
+    return currTok.kind() != TokenType.Eof;
+  }
+
+  @Override
+  public LispObject next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+
+    return readForm();
+  }
+
   public List<LispObject> read() {
     List<LispObject> forms = new ArrayList<>();
-    while (true) {
-      var form = readForm();
-      if (form instanceof Eof) {
-        break;
-      }
-      forms.add(form);
+    while (hasNext()) {
+      forms.add(next());
     }
 
     return forms;
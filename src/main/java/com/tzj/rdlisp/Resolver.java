@@ -0,0 +1,198 @@
+package com.tzj.rdlisp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Rewrites a lambda body so that every variable reference carries its lexical address - a
+// LocalRef (depth, slot) for parameters of enclosing lambdas, and a GlobalRef otherwise.
+// Nested lambda forms become LambdaTemplates, so their bodies are resolved only once.
+//
+// Quoted data and the arguments of calls to (currently defined) macros are left untouched -
+// a macro must see the forms as they were written. Such calls become MacroCallSites, which
+// remember their (resolved) expansion.
+public class Resolver {
+  public static LispObject resolve(LispObject form, Scope scope, Environment global) {
+    return switch (form) {
+      case Symbol sym -> address(sym, scope);
+
+      case Cons cons -> {
+        if (cons.car instanceof Symbol op && !isLocal(op, scope)) {
+          if (op.special == null) {
+            if (global.retrieveGlobal(op) instanceof MacroFunction) {
+              yield new MacroCallSite(op, cons);
+            }
+            yield resolveList(cons, scope, global);
+          }
+
+          yield switch (op.special) {
+            case QUOTE, UNQUOTE, UNQUOTE_SPLICE, DEFUN, DEFMACRO -> cons;
+
+            case QUASIQUOTE -> Util.makeCons(op, resolveTemplate(cons.cdr, scope, global));
+
+            case DEF -> {
+              if (cons.cdr instanceof Cons defArgs) {
+                yield Util.makeCons(
+                    op, Util.makeCons(defArgs.car, resolveList(defArgs.cdr, scope, global)));
+              }
+              yield cons;
+            }
+
+            case LAMBDA -> resolveLambda(cons, scope, global);
+
+            case IF -> Util.makeCons(op, resolveList(cons.cdr, scope, global));
+          };
+        }
+
+        yield resolveList(cons, scope, global);
+      }
+
+      default -> form;
+    };
+  }
+
+  // the inverse of `resolve` - recovers the source form, e.g. to hand it to a macro
+  public static LispObject unresolve(LispObject form) {
+    return switch (form) {
+      case LocalRef ref -> ref.name;
+      case GlobalRef ref -> ref.name;
+      case LambdaTemplate template -> template.form;
+      case MacroCallSite site -> site.form;
+      case Cons cons -> {
+        var car = unresolve(cons.car);
+        var cdr = unresolve(cons.cdr);
+        yield car == cons.car && cdr == cons.cdr ? cons : Util.makeCons(car, cdr);
+      }
+      default -> form;
+    };
+  }
+
+  public static Symbol[] paramNames(LispObject params) {
+    var names = new ArrayList<Symbol>();
+
+    while (!params.isNil()) {
+      var param = Util.car(params);
+      if (param.isCons()) {
+        param = Util.cdr(param);
+      }
+
+      if (param instanceof Symbol sym) {
+        names.add(sym);
+      } else {
+        throw new Error(String.format("lambda parameter must be a symbol, but got %s", param));
+      }
+      params = Util.cdr(params);
+    }
+
+    return names.toArray(new Symbol[0]);
+  }
+
+  // the scope of a lambda with `params` and `body`, within `parent`
+  static Scope lambdaScope(LispObject params, LispObject body, Scope parent) {
+    var names = new ArrayList<>(List.of(paramNames(params)));
+    var paramCount = names.size();
+    definedNames(body, names);
+    return new Scope(names.toArray(new Symbol[0]), paramCount, parent);
+  }
+
+  // adds to `names` those that `form` may bind with `def`, `defun` or `defmacro` - not those of
+  // nested lambdas, which have frames of their own. Symbols in quoted data and macro arguments are
+  // included too, harmlessly: a local never bound reads through to the global. A def only made by
+  // a macro expansion, of a name that does not appear in the body, still binds globally.
+  private static void definedNames(LispObject form, List<Symbol> names) {
+    if (!(form instanceof Cons cons)) {
+      return;
+    }
+    if (cons.car instanceof Symbol op && op.special != null) {
+      switch (op.special) {
+        case LAMBDA -> {
+          return;
+        }
+        case DEF, DEFUN, DEFMACRO -> {
+          if (cons.cdr instanceof Cons args && args.car instanceof Symbol name) {
+            if (!names.contains(name)) {
+              names.add(name);
+            }
+            if (op.special == SpecialForm.DEF) {
+              definedNames(args.cdr, names);
+            }
+          }
+          return;
+        }
+        default -> {}
+      }
+    }
+    for (LispObject lst = cons; lst instanceof Cons elem; lst = elem.cdr) {
+      definedNames(elem.car, names);
+    }
+  }
+
+  public static boolean hasVararg(LispObject params) {
+    while (!params.isNil()) {
+      if (Util.car(params).isCons()) {
+        return true;
+      }
+      params = Util.cdr(params);
+    }
+    return false;
+  }
+
+  // a LocalRef if `sym` is bound by one of the frames described by `scope`, else a GlobalRef
+  public static LispObject address(Symbol sym, Scope scope) {
+    var depth = 0;
+    for (var sc = scope; sc != null; sc = sc.parent) {
+      int slot = sc.slotOf(sym);
+      if (slot >= 0) {
+        return new LocalRef(depth, slot, sym);
+      }
+      depth++;
+    }
+    return new GlobalRef(sym);
+  }
+
+  private static boolean isLocal(Symbol sym, Scope scope) {
+    for (var sc = scope; sc != null; sc = sc.parent) {
+      if (sc.slotOf(sym) >= 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static LispObject resolveList(LispObject lst, Scope scope, Environment global) {
+    if (lst instanceof Cons cons) {
+      return Util.makeCons(resolve(cons.car, scope, global), resolveList(cons.cdr, scope, global));
+    }
+    return lst;
+  }
+
+  // mirrors Evaluator.quasiQuote - only the unquoted parts of a template are code
+  private static LispObject resolveTemplate(LispObject obj, Scope scope, Environment global) {
+    if (obj instanceof Cons cons) {
+      if (cons.car.equals(Util.unquote) && cons.cdr instanceof Cons arg) {
+        return Util.makeCons(cons.car, Util.makeCons(resolve(arg.car, scope, global), arg.cdr));
+      } else if (cons.car.equals(Util.unquoteSplice) && cons.cdr instanceof Cons arg) {
+        return Util.makeCons(
+            cons.car,
+            Util.makeCons(
+                resolve(arg.car, scope, global), resolveTemplate(arg.cdr, scope, global)));
+      } else {
+        return Util.makeCons(
+            resolveTemplate(cons.car, scope, global), resolveTemplate(cons.cdr, scope, global));
+      }
+    }
+    return obj;
+  }
+
+  private static LispObject resolveLambda(Cons form, Scope scope, Environment global) {
+    // malformed lambdas are left for the evaluator to report
+    if (!(form.cdr instanceof Cons args) || !(args.cdr instanceof Cons body)) {
+      return form;
+    }
+
+    var lambdaScope = lambdaScope(args.car, body.car, scope);
+    var paramCount = lambdaScope.params - (hasVararg(args.car) ? 1 : 0);
+
+    return new LambdaTemplate(
+        form, args.car, lambdaScope, resolve(body.car, lambdaScope, global), paramCount);
+  }
+}
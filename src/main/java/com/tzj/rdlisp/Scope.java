@@ -0,0 +1,31 @@
+package com.tzj.rdlisp;
+
+// the static shape of a frame - the names bound by a lambda's parameter list, in slot order,
+// then those its body binds with `def`, `defun` or `defmacro`, which are local to the call as
+// they were when each call had an environment of its own. Every activation of the same lambda
+// shares one Scope.
+final class Scope {
+  final Symbol[] names;
+  // how many of the names are parameters - the slots after them start out empty
+  final int params;
+  final Scope parent;
+
+  Scope(final Symbol[] names, final Scope parent) {
+    this(names, names.length, parent);
+  }
+
+  Scope(final Symbol[] names, final int params, final Scope parent) {
+    this.names = names;
+    this.params = params;
+    this.parent = parent;
+  }
+
+  int slotOf(Symbol sym) {
+    for (int i = 0; i < names.length; i++) {
+      if (names[i] == sym) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,6 @@
+package com.tzj.rdlisp;
+
+// A value that evaluates to itself, as vectors, tables, arrays and lazy sequences do - every
+// engine takes one as a constant, in a single arm of its dispatch. nil and numbers evaluate to
+// themselves too, but keep arms of their own ahead of the others, being by far the most common.
+interface SelfEvaluating {}
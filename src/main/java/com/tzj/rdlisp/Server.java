@@ -0,0 +1,267 @@
+package com.tzj.rdlisp;
+
+import static java.net.StandardProtocolFamily.UNIX;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+// A REPL served over a socket - TCP on the loopback interface, or a Unix-domain socket. Each
+// connection is a session with an Interpreter of its own, on a virtual thread of its own, so
+// sessions never see each other's definitions and a blocked or busy one holds up no other.
+//
+// A session is a sequence of requests, each some Lisp source, answered in order by the value of
+// its last form as `ok <value>`, or by `err <message>`. How requests and responses are delimited
+// on the wire is the Framing. An evaluation running past the timeout is interrupted, and once
+// `maxSessions` are open, further connections are told `err server busy` and closed.
+//
+// Once running, it denies every session - and any other Lisp code in the process - the builtins
+// that reach the server's files or the process-wide profiler (see Interpreter.denyHostAccess),
+// so that no client can read or overwrite the files, or profile and slow down the others.
+public final class Server {
+  public enum Framing {
+    // one request or response per line - convenient from a terminal, e.g. `nc localhost 5555`
+    LINE {
+      @Override
+      public String read(InputStream in) throws IOException {
+        var line = new ByteArrayOutputStream();
+        for (int b = in.read(); b != '\n'; b = in.read()) {
+          if (b < 0) {
+            if (line.size() == 0) {
+              return null;
+            }
+            break;
+          }
+          if (line.size() == MAX_FRAME) {
+            throw new IOException("request too large");
+          }
+          line.write(b);
+        }
+        return line.toString(UTF_8);
+      }
+
+      @Override
+      public void write(OutputStream out, String msg) throws IOException {
+        out.write(msg.replace('\n', ' ').getBytes(UTF_8));
+        out.write('\n');
+        out.flush();
+      }
+    },
+
+    // each request or response is a 4-byte big-endian length, then that many bytes of UTF-8 -
+    // so requests can span lines
+    LENGTH {
+      @Override
+      public String read(InputStream in) throws IOException {
+        var data = new DataInputStream(in);
+        int length;
+        try {
+          length = data.readInt();
+        } catch (EOFException eof) {
+          return null;
+        }
+        if (length < 0 || length > MAX_FRAME) {
+          throw new IOException(String.format("bad frame length %d", length));
+        }
+        var bytes = new byte[length];
+        data.readFully(bytes);
+        return new String(bytes, UTF_8);
+      }
+
+      @Override
+      public void write(OutputStream out, String msg) throws IOException {
+        var bytes = msg.getBytes(UTF_8);
+        var data = new DataOutputStream(out);
+        data.writeInt(bytes.length);
+        data.write(bytes);
+        data.flush();
+      }
+    };
+
+    private static final int MAX_FRAME = 1 << 20;
+
+    // the next request, or null at the end of the stream
+    public abstract String read(InputStream in) throws IOException;
+
+    public abstract void write(OutputStream out, String msg) throws IOException;
+
+    public static Framing named(String name) {
+      for (var framing : values()) {
+        if (framing.name().equalsIgnoreCase(name)) {
+          return framing;
+        }
+      }
+      throw new Error(String.format("unknown framing %s", name));
+    }
+  }
+
+  private final SocketAddress address;
+  private final Engine engine;
+  private final Framing framing;
+  private final long timeoutMillis;
+  private final Semaphore sessions;
+
+  // fires the interrupts of timed-out evaluations
+  private final ScheduledExecutorService timer =
+      Executors.newSingleThreadScheduledExecutor(
+          task -> {
+            var thread = new Thread(task, "rdlisp-eval-timer");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  // `timeoutMillis` of 0 lets evaluations run for as long as they take
+  public Server(
+      final SocketAddress address,
+      final Engine engine,
+      final Framing framing,
+      final long timeoutMillis,
+      final int maxSessions) {
+    this.address = address;
+    this.engine = engine;
+    this.framing = framing;
+    this.timeoutMillis = timeoutMillis;
+    this.sessions = new Semaphore(maxSessions);
+  }
+
+  // `unix:<path>` for a Unix-domain socket, otherwise a TCP port on the loopback interface
+  public static SocketAddress address(String spec) {
+    if (spec.startsWith("unix:")) {
+      return UnixDomainSocketAddress.of(spec.substring("unix:".length()));
+    }
+    try {
+      var port = java.lang.Integer.parseInt(spec);
+      return new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+    } catch (NumberFormatException err) {
+      throw new Error(String.format("%s is neither a port nor unix:<path>", spec));
+    }
+  }
+
+  // accepts connections until the thread is interrupted or the socket fails
+  public void run() throws IOException {
+    Interpreter.denyHostAccess();
+    var unix = address instanceof UnixDomainSocketAddress;
+    if (unix) {
+      // left behind by a server that was killed
+      Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+    }
+
+    try (var server = unix ? ServerSocketChannel.open(UNIX) : ServerSocketChannel.open();
+        var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      server.bind(address);
+      System.out.println("Listening on " + server.getLocalAddress());
+
+      while (true) {
+        var channel = server.accept();
+        if (!sessions.tryAcquire()) {
+          executor.execute(() -> reject(channel));
+          continue;
+        }
+
+        executor.execute(
+            () -> {
+              try {
+                serve(channel);
+              } finally {
+                sessions.release();
+              }
+            });
+      }
+    } finally {
+      timer.shutdownNow();
+      if (unix) {
+        Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+      }
+    }
+  }
+
+  private void serve(SocketChannel channel) {
+    var interpreter = new Interpreter(engine);
+    try (channel;
+        var in = new BufferedInputStream(Channels.newInputStream(channel));
+        var out = new BufferedOutputStream(Channels.newOutputStream(channel))) {
+      String request;
+      while ((request = framing.read(in)) != null) {
+        framing.write(out, evaluate(interpreter, request));
+      }
+    } catch (IOException err) {
+      // the client went away, or broke the framing - either way the session is over
+    }
+  }
+
+  private void reject(SocketChannel channel) {
+    try (channel;
+        var out = new BufferedOutputStream(Channels.newOutputStream(channel))) {
+      framing.write(out, "err server busy");
+    } catch (IOException err) {
+      // nothing more to tell a client that is gone
+    }
+  }
+
+  private String evaluate(Interpreter interpreter, String request) {
+    var deadline = timeoutMillis > 0 ? new Deadline(Thread.currentThread()) : null;
+    var alarm =
+        deadline != null ? timer.schedule(deadline, timeoutMillis, TimeUnit.MILLISECONDS) : null;
+    try {
+      return "ok " + interpreter.eval(request);
+    } catch (Error err) {
+      if (deadline != null && deadline.fired) {
+        return String.format("err evaluation timed out after %dms", timeoutMillis);
+      }
+      return "err " + err;
+    } catch (StackOverflowError err) {
+      return "err stack overflow";
+    } catch (RuntimeException err) {
+      return "err " + err;
+    } finally {
+      if (deadline != null) {
+        deadline.disarm();
+        alarm.cancel(false);
+        // an interrupt that landed after the evaluation finished would otherwise end the next
+        Thread.interrupted();
+      }
+    }
+  }
+
+  // interrupts the evaluating thread, unless the evaluation has finished by then
+  private static final class Deadline implements Runnable {
+    private final Thread thread;
+    private boolean armed = true;
+    volatile boolean fired;
+
+    Deadline(final Thread thread) {
+      this.thread = thread;
+    }
+
+    @Override
+    public synchronized void run() {
+      if (armed) {
+        fired = true;
+        thread.interrupt();
+      }
+    }
+
+    synchronized void disarm() {
+      armed = false;
+    }
+  }
+}
@@ -0,0 +1,30 @@
+package com.tzj.rdlisp;
+
+// the special forms, tagged onto their Symbols when they are interned so that dispatching on
+// a form's operator is a switch over the tag rather than a string comparison
+enum SpecialForm {
+  QUOTE("QUOTE"),
+  QUASIQUOTE("QUASIQUOTE"),
+  UNQUOTE("UNQUOTE"),
+  UNQUOTE_SPLICE("UNQUOTE-SPLICE"),
+  DEF("DEF"),
+  DEFMACRO("DEFMACRO"),
+  DEFUN("DEFUN"),
+  LAMBDA("LAMBDA"),
+  IF("IF");
+
+  private final String spelling;
+
+  SpecialForm(final String spelling) {
+    this.spelling = spelling;
+  }
+
+  static SpecialForm named(String name) {
+    for (var form : values()) {
+      if (form.spelling.equals(name)) {
+        return form;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,29 @@
+package com.tzj.rdlisp;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+// The process-wide table of interned symbols. There is exactly one Symbol per (case-folded)
+// name, so symbols can be compared with `==` and hashed without touching their names.
+// Safe to use from any thread.
+public class SymbolTable {
+  private static final ConcurrentHashMap<String, Symbol> symbols = new ConcurrentHashMap<>();
+
+  public static Symbol intern(String name) {
+    var folded = name.toUpperCase();
+    var sym = symbols.get(folded);
+    if (sym == null) {
+      sym = symbols.computeIfAbsent(folded, Symbol::new);
+    }
+
+    return sym;
+  }
+
+  public static Collection<Symbol> symbols() {
+    return symbols.values();
+  }
+
+  public static int size() {
+    return symbols.size();
+  }
+}
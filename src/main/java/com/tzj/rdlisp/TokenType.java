@@ -4,6 +4,8 @@ enum TokenType {
   AndRest,
   Dot,
   Eof,
+  Float,
+  HashOpen,
   Integer,
   LeftParen,
   QuasiQuote,
@@ -11,5 +13,6 @@ enum TokenType {
   RightParen,
   Symbol,
   Unquote,
-  UnquoteSplice;
+  UnquoteSplice,
+  VectorOpen;
 }
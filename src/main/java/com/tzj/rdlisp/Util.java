@@ -1,25 +1,32 @@
 package com.tzj.rdlisp;
 
+import java.math.BigInteger;
+
 public class Util {
   public static LispObject makeInteger(String intStr) {
     try {
-      return new Integer(java.lang.Integer.parseInt(intStr));
+      // anything shorter than 10 characters fits in a fixnum
+      if (intStr.length() < 10) {
+        return Integer.valueOf(java.lang.Integer.parseInt(intStr));
+      }
+      return Numbers.normalize(new BigInteger(intStr));
     } catch (NumberFormatException ex) {
       throw new RuntimeException(String.format("%s is not an integer", intStr));
     }
   }
 
-  public static Symbol makeSymbol(String symStr) {
-    var sym = Environment.getInitEnv().retrieveSymbol(symStr);
-
-    if (sym == null) {
-      Environment.getInitEnv().addSymbol(symStr);
-      return Environment.getInitEnv().retrieveSymbol(symStr);
-    } else {
-      return sym;
+  public static LispObject makeFloat(String floatStr) {
+    try {
+      return new Flonum(Double.parseDouble(floatStr));
+    } catch (NumberFormatException ex) {
+      throw new RuntimeException(String.format("%s is not a float", floatStr));
     }
   }
 
+  public static Symbol makeSymbol(String symStr) {
+    return SymbolTable.intern(symStr);
+  }
+
   public static LispObject makeNil() {
     return nil;
   }
@@ -68,6 +75,23 @@ public class Util {
     return reverse(copy);
   }
 
+  public static LispObject[] toArray(LispObject lst) {
+    var array = new LispObject[consLength(lst)];
+    for (int i = 0; i < array.length; i++) {
+      array[i] = car(lst);
+      lst = cdr(lst);
+    }
+    return array;
+  }
+
+  public static LispObject toList(LispObject[] array) {
+    var lst = new ListBuilder();
+    for (var obj : array) {
+      lst.add(obj);
+    }
+    return lst.build();
+  }
+
   public static int consLength(LispObject obj) {
     int len = 0;
     var cons = obj;
@@ -100,11 +124,12 @@ public class Util {
     return res;
   }
 
-  public static final Symbol quote = new Symbol("quote");
-  public static final Symbol quasiQuote = new Symbol("quasiquote");
-  public static final Symbol unquote = new Symbol("unquote");
-  public static final Symbol unquoteSplice = new Symbol("unquote-splice");
-  public static final Symbol vararg = new Symbol("vararg");
+  public static final Symbol quote = makeSymbol("quote");
+  public static final Symbol quasiQuote = makeSymbol("quasiquote");
+  public static final Symbol unquote = makeSymbol("unquote");
+  public static final Symbol unquoteSplice = makeSymbol("unquote-splice");
+  public static final Symbol vararg = makeSymbol("vararg");
+  public static final Symbol lambda = makeSymbol("lambda");
   public static final LispObject nil = new Nil();
   public static final LispObject eof = new Eof();
   public static final LispObject t = new True();
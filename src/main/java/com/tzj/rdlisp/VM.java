@@ -0,0 +1,201 @@
+package com.tzj.rdlisp;
+
+import java.util.Arrays;
+
+// Runs Chunks compiled by the Compiler. The operand stack is one array per activation, sized
+// by the compiler, and instructions allocate nothing of their own.
+//
+// Calls to compiled closures bind the arguments straight off the stack. A tail call, or a
+// macro expansion in tail position, replaces the running chunk and frame in place instead of
+// nesting.
+final class VM {
+  private VM() {}
+
+  static LispObject run(Chunk chunk, Environment env) {
+    if (Metrics.enabled) {
+      Metrics.enter();
+      try {
+        return profiledRun(chunk, env);
+      } finally {
+        Metrics.exit();
+      }
+    }
+    return profiledRun(chunk, env);
+  }
+
+  private static LispObject profiledRun(Chunk chunk, Environment env) {
+    if (Profiler.enabled) {
+      var mark = Profiler.mark();
+      try {
+        return run(chunk, env, mark);
+      } finally {
+        Profiler.unwind(mark);
+      }
+    }
+    return run(chunk, env, -1);
+  }
+
+  // `mark` is the depth of the Profiler's stack when this activation began, or -1 if it is off
+  static LispObject run(Chunk chunk, Environment env, int mark) {
+    var code = chunk.code;
+    var constants = chunk.constants;
+    var stack = new LispObject[chunk.maxStack];
+    var sp = 0;
+    var pc = 0;
+
+    while (true) {
+      switch (code[pc++]) {
+        case Opcode.CONST -> stack[sp++] = (LispObject) constants[code[pc++]];
+
+        case Opcode.LOCAL -> {
+          stack[sp++] = env.retrieveLocal(code[pc], code[pc + 1]);
+          pc += 2;
+        }
+
+        case Opcode.GLOBAL -> {
+          var ref = (GlobalRef) constants[code[pc++]];
+          var binding = ref.lookup(env);
+          if (binding == null) {
+            throw new Error(String.format("%s is not bound", ref.name));
+          }
+          stack[sp++] = binding;
+        }
+
+        case Opcode.STORE_LOCAL -> {
+          env.bindLocal(code[pc], code[pc + 1], stack[sp - 1]);
+          pc += 2;
+        }
+
+        case Opcode.STORE_GLOBAL -> env.bindGlobal((Symbol) constants[code[pc++]], stack[sp - 1]);
+
+        case Opcode.POP -> sp--;
+
+        case Opcode.JUMP -> pc = code[pc];
+
+        case Opcode.JUMP_IF_FALSE -> pc = stack[--sp].isTrue() ? pc + 1 : code[pc];
+
+        case Opcode.CLOSURE -> stack[sp++] = ((LambdaNode) constants[code[pc++]]).execute(env);
+
+        case Opcode.FUNCTION -> stack[sp - 1] =
+            new Function((Symbol) constants[code[pc++]], (LambdaExpression) stack[sp - 1]);
+
+        case Opcode.MACRO -> stack[sp - 1] =
+            new MacroFunction((Symbol) constants[code[pc++]], (LambdaExpression) stack[sp - 1]);
+
+        case Opcode.CALLEE -> {
+          var callee = stack[sp - 1];
+          if (callee instanceof MacroFunction macroFn) {
+            // became a macro after this call was compiled
+            var form = (Cons) constants[code[pc]];
+            var tail = code[pc + 2] != 0;
+            var expansion =
+                Compiler.compile(macroFn.apply(form.cdr), env.scope(), env.global(), tail);
+            if (tail) {
+              code = expansion.code;
+              constants = expansion.constants;
+              stack = fit(stack, expansion.maxStack);
+              sp = 0;
+              pc = 0;
+            } else {
+              stack[sp - 1] = expansion.execute(env);
+              pc = code[pc + 1];
+            }
+          } else if (callee instanceof ApplicableExpression) {
+            pc += 3;
+          } else {
+            throw new Error(
+                String.format("%s is not a function", ((Cons) constants[code[pc]]).car));
+          }
+        }
+
+        case Opcode.CALL, Opcode.TAILCALL -> {
+          var tail = code[pc - 1] == Opcode.TAILCALL;
+          var argc = code[pc++];
+          var base = sp - argc - 1;
+          var fn = (ApplicableExpression) stack[base];
+
+          var lambda = fn.lambda();
+          if (lambda != null && lambda.code() instanceof Chunk callee) {
+            var frame = lambda.bind(stack, base + 1, argc);
+            if (tail) {
+              if (mark >= 0) {
+                Profiler.call(fn, mark);
+              }
+              env = frame;
+              code = callee.code;
+              constants = callee.constants;
+              stack = fit(stack, callee.maxStack);
+              sp = 0;
+              pc = 0;
+              continue;
+            }
+            if (mark >= 0) {
+              var calleeMark = Profiler.mark();
+              Profiler.call(fn, calleeMark);
+              stack[base] = TailCall.resolve(run(callee, frame, calleeMark));
+              Profiler.unwind(calleeMark);
+            } else {
+              stack[base] = TailCall.resolve(run(callee, frame));
+            }
+          } else if (tail && fn.isTailCallable()) {
+            // a closure of another engine, or a compiled function - made by the trampoline
+            return new TailCall(fn, Arrays.copyOfRange(stack, base + 1, sp));
+          } else if (Profiler.enabled && fn instanceof BuiltinFunction) {
+            var args = Arrays.copyOfRange(stack, base + 1, sp);
+            stack[base] = Profiler.profile(fn, () -> fn.applyN(args));
+          } else {
+            stack[base] =
+                switch (argc) {
+                  case 0 -> fn.apply0();
+                  case 1 -> fn.apply1(stack[base + 1]);
+                  case 2 -> fn.apply2(stack[base + 1], stack[base + 2]);
+                  case 3 -> fn.apply3(stack[base + 1], stack[base + 2], stack[base + 3]);
+                  default -> fn.applyN(Arrays.copyOfRange(stack, base + 1, sp));
+                };
+          }
+          sp = base + 1;
+        }
+
+        case Opcode.MACRO_CALL -> {
+          var site = (MacroSite) constants[code[pc++]];
+          var expansion = site.expansion(env);
+          if (site.tail) {
+            code = expansion.code;
+            constants = expansion.constants;
+            stack = fit(stack, expansion.maxStack);
+            sp = 0;
+            pc = 0;
+          } else {
+            stack[sp++] = expansion.execute(env);
+          }
+        }
+
+        case Opcode.RETURN -> {
+          return stack[sp - 1];
+        }
+
+        case Opcode.LIST1 -> stack[sp - 1] = Util.makeCons(stack[sp - 1], Util.nil);
+
+        case Opcode.APPEND -> {
+          sp--;
+          stack[sp - 1] = Util.append(stack[sp - 1], stack[sp]);
+        }
+
+        case Opcode.TEMPLATE_CONS -> {
+          sp--;
+          var head = stack[sp - 1];
+          var tail = stack[sp];
+          stack[sp - 1] = head.isCons() ? Util.append(head, tail) : Util.makeCons(head, tail);
+        }
+
+        default -> throw new IllegalStateException(
+            String.format("unknown opcode %d at %d", code[pc - 1], pc - 1));
+      }
+    }
+  }
+
+  // the operand stack for a chunk that needs `size` slots - reused if it is already big enough
+  private static LispObject[] fit(LispObject[] stack, int size) {
+    return stack.length >= size ? stack : new LispObject[size];
+  }
+}
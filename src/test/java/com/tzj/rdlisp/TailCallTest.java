@@ -0,0 +1,38 @@
+package com.tzj.rdlisp;
+
+import junit.framework.TestCase;
+
+// Tail calls between functions the JIT has compiled and ones it leaves interpreted - a function
+// with a `&rest` parameter, or a lambda called in place, stays interpreted - must run in constant
+// Java stack on every engine, as those within either tier do.
+public class TailCallTest extends TestCase {
+  // many more calls than it takes to compile the functions, and than the stack has frames for
+  private static final int CALLS = 1_000_000;
+
+  public void testMutualRecursion() {
+    check(
+        "T",
+        "(defun ev? (n) (if (eq? n 0) t (od? (- n 1))))",
+        "(defun od? (n &rest r) (if (eq? n 0) nil (ev? (- n 1))))",
+        "(ev? " + CALLS + ")");
+  }
+
+  public void testThroughLambda() {
+    check(
+        "DONE",
+        "(defun loop (n) (if (eq? n 0) 'done (helper n)))",
+        "(defun helper (n) ((lambda (m) (loop m)) (- n 1)))",
+        "(loop " + CALLS + ")");
+  }
+
+  private static void check(String expected, String... forms) {
+    for (var engine : Engine.values()) {
+      var interpreter = new Interpreter(engine);
+      LispObject result = null;
+      for (var form : forms) {
+        result = interpreter.eval(form);
+      }
+      assertEquals(engine.toString(), expected, result.toString());
+    }
+  }
+}
@@ -0,0 +1,68 @@
+;;; reference definitions for the list functions that rd-lisp implements natively (see the
+;;; list functions in LispObject.java). They are not loaded - the builtins must agree with them.
+
+(defun reverse (lst)
+  (foldl (lambda (lst elem) (cons elem lst)) nil lst))
+
+(defun map (fn lst)
+  (foldr (lambda (x rest)
+           (cons (fn x) rest))
+         nil
+         lst))
+
+(defun filter (pred lst)
+  (foldr (lambda (x rest)
+           (if (pred x)
+             (cons x rest)
+             rest))
+         nil
+         lst))
+
+(defun list* (&rest forms)
+  (foldr 
+    (lambda (e acc)
+      (if (pair? e)
+        (if (null? acc)
+          (append e acc)
+          (cons e acc))
+        (cons e acc)))
+    nil
+    forms))
+
+(defun append-two (lst1 lst2)
+  (if (null? lst1)
+    lst2
+    (cons (car lst1) (append-two (cdr lst1) lst2))))
+
+(defun append (&rest lsts)
+  (foldr 
+    (lambda (lst acc)
+      (append-two lst acc))
+    nil
+    lsts))
+
+(defun length (lst)
+  (foldl (lambda (n x) (+ n 1)) 0 lst))
+
+(defun nth (n lst)
+  (if (null? lst)
+    nil
+    (if (eq? n 0)
+      (car lst)
+      (nth (- n 1) (cdr lst)))))
+
+(defun assoc (key alist)
+  (if (null? alist)
+    nil
+    (if (if (pair? (car alist))
+          (eq? (car (car alist)) key)
+          nil)
+      (car alist)
+      (assoc key (cdr alist)))))
+
+(defun member (x lst)
+  (if (null? lst)
+    nil
+    (if (eq? (car lst) x)
+      lst
+      (member x (cdr lst)))))